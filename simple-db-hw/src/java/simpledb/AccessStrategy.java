@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * AccessStrategy is a hint passed to {@link BufferPool#getPage} describing
+ * how the caller is going to use the pages it fetches.
+ * <p>
+ * A ring strategy gives a large sequential scan a small private ring of
+ * frames: every page the scan has to read from disk goes into the ring, and
+ * once the ring is full the scan recycles its own oldest frame rather than
+ * asking the replacement policy for a victim.  Pages that are already
+ * cached are returned as usual.  This way a scan over a table much larger
+ * than the pool occupies only a handful of frames and leaves the working
+ * set of concurrent transactions alone.
+ * <p>
+ * A ring frame that has been dirtied is never recycled (NO STEAL); it is
+ * dropped from the ring and left to the replacement policy instead.
+ * <p>
+ * Strategies are stateful and must not be shared between threads; each
+ * scan should create its own.
+ *
+ * @see BufferPool#scanStrategy
+ */
+public class AccessStrategy {
+
+    /** Frames read through this strategy, in the order they were loaded. */
+    final BufferPool.Frame[] ring;
+    /** Next ring position to fill (and, once full, to recycle). */
+    int next;
+
+    private AccessStrategy(int frames) {
+        this.ring = new BufferPool.Frame[frames];
+    }
+
+    /**
+     * Creates a ring strategy that keeps at most the given number of frames.
+     */
+    public static AccessStrategy ring(int frames) {
+        if (frames <= 0)
+            throw new IllegalArgumentException("a ring needs at least one frame");
+        return new AccessStrategy(frames);
+    }
+
+    /** @return the number of frames in this strategy's ring */
+    public int size() {
+        return ring.length;
+    }
+}
@@ -2,7 +2,16 @@ package simpledb;
 
 import java.io.*;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -11,7 +20,62 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page.  Locks are page-level, shared for
+ * READ_ONLY and exclusive for READ_WRITE, under intention locks on the
+ * table, and are kept by a {@link LockManager} until the transaction
+ * completes; a transaction that locks many pages of one table escalates
+ * to a single table lock.  A lock request that would deadlock aborts
+ * whichever transaction in the deadlock has updated the fewest pages.
+ * <p>
+ * Resident pages are kept in a page table split into shards by the hash of
+ * their PageId, so lookups of unrelated pages never contend on a common
+ * lock.  When the pool is full, a {@link ReplacementPolicy} proposes
+ * victims; the default CLOCK policy lets neither hits nor evictions take a
+ * pool-wide lock.
+ * <p>
+ * In off-heap mode (-Dsimpledb.BufferPool.offHeap=true) the pool allocates
+ * all of its frames up front as direct memory, heap file pages are read
+ * straight into those frames, and the cached HeapPages are views over
+ * them.  The page bytes then cost the garbage collector nothing, however
+ * large the pool.
+ * <p>
+ * Tables can be given partitions of the pool, with a minimum and a
+ * maximum number of bytes, through the Catalog; see {@link PoolPartition}.
+ * <p>
+ * Callers that need a page to stay cached while they work on it pin it
+ * with {@link #pinPage}; pinned pages are never evicted.
+ * <p>
+ * Clean pages evicted from the pool can be kept, deflated, in a second
+ * tier that misses check before reading from disk; see
+ * {@link CompressedPageCache} and {@link #setCompressedCacheBytes}.
+ * <p>
+ * A {@link Prefetcher} watches for tables being read in page order and
+ * reads ahead of such scans on background threads; its depth is set with
+ * -Dsimpledb.BufferPool.prefetchDepth or {@link #setPrefetchDepth}.
+ * <p>
+ * The pool's capacity is a budget in bytes, and each page is charged its
+ * table's page size ({@link DbFile#getPageSize}), so tables with large and
+ * small pages share one budget.  The budget of a running pool can be
+ * changed with {@link #setBudgetBytes}, or in pages of the default size
+ * with {@link #resize}.
+ * <p>
+ * {@link #saveResidentPages} and {@link #loadResidentPages} carry the
+ * set of cached pages over a restart; see {@link WarmRestart}.
+ * <p>
+ * The pool counts its hits, misses, evictions, reads, writes and lock
+ * waits as it goes; {@link #getStats} returns a snapshot of them, and
+ * {@link BufferPoolMXBean} publishes them over JMX.
+ * <p>
+ * The pool never writes changes of a running transaction (NO STEAL).  By
+ * default a commit writes the transaction's pages itself (FORCE); with a
+ * {@link PageWriter} enabled (-Dsimpledb.BufferPool.writeRate or
+ * {@link #setWriteRate}) the commit logs them instead and they are written
+ * in the background.  The log is emptied once every commit it holds is on
+ * disk, and before a FORCE commit writes anything, so that recovery never
+ * redoes a logged image over a later FORCE commit.  Either way, and in
+ * flushAllPages, pages are written in batches sorted by table and page
+ * number, so that each file sees sequential writes of neighbouring pages
+ * and one sync.
  * 
  * @Threadsafe, all fields are final
  */
@@ -26,15 +90,237 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Upper bound on the number of page table shards. */
+    private static final int MAX_SHARDS = 64;
+
+    /** System property that turns on off-heap frames for new pools. */
+    public static final String OFF_HEAP_PROPERTY = "simpledb.BufferPool.offHeap";
+
+    /** Most frames written, and locked, by one batch of flushFrames. */
+    private static final int MAX_BATCH = 256;
+
+    /** Largest ring handed to a sequential scan, in pages. */
+    private static final int MAX_SCAN_RING = 32;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * A cache frame for a single page.  A frame is created in the LOADING
+     * state by the thread that missed on its page, becomes RESIDENT once
+     * the page has been read, and is retired (EVICTED) exactly once, by
+     * whichever thread wins the CAS out of RESIDENT.
+     */
+    static final class Frame {
+        static final int LOADING = 0;
+        static final int RESIDENT = 1;
+        static final int EVICTED = 2;
+        /** Claimed by an evictor that has yet to check the pin count. */
+        static final int EVICTING = 3;
+
+        final PageId pid;
+        final AtomicInteger state = new AtomicInteger(LOADING);
+        volatile Page page;
+        /** Reference bit, for policies that use one. */
+        volatile boolean referenced = true;
+        /** Index of this frame in the policy's ring, for policies that use one. */
+        volatile int slot = -1;
+        /** Arena memory holding the page's bytes, or null if they are on the heap. */
+        volatile ByteBuffer arenaFrame;
+        /** Set if read ahead of demand and not yet asked for by getPage. */
+        volatile boolean prefetched;
+        /**
+         * Set if the page's before image holds committed changes that are
+         * not on disk yet.  Changed only while holding this frame's monitor.
+         */
+        volatile boolean pendingWrite;
+        /** Bytes charged against the pool's budget for this frame. */
+        int size;
+        /** The partition of the page's table, or null if it has none. */
+        PoolPartition partition;
+        /** The pool's count of bytes in that partition. */
+        AtomicLong partitionBytes;
+        /** Number of open {@link PinnedPage}s on this frame. */
+        final AtomicInteger pins = new AtomicInteger();
+        /**
+         * getPage hits on this frame, a measure of how hot it is, saturating
+         * at {@link #HOT_HITS}.  Written only while it is below that, so a
+         * hot frame's hits read it and no longer write it; concurrent hits
+         * may be lost.
+         */
+        volatile int hits;
+
+        /** Hits past which a frame counts as simply hot. */
+        static final int HOT_HITS = 15;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+
+        /** Blocks until this frame has left the LOADING state. */
+        synchronized void awaitLoaded() {
+            boolean interrupted = false;
+            while (state.get() == LOADING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        synchronized void finishLoading(int newState) {
+            state.set(newState);
+            notifyAll();
+        }
+    }
+
+    /** Capacity in bytes; see {@link #setBudgetBytes}. */
+    private volatile long budget;
+    private final ConcurrentHashMap<PageId, Frame>[] shards;
+    private final int shardMask;
+    private final ReplacementPolicy policy;
+    /** Off-heap frame memory, or null when pages live on the heap. */
+    private final PageArena arena;
+    /** Clean pages evicted from the pool, kept deflated. */
+    private final CompressedPageCache tier;
+    private final Prefetcher prefetcher;
+    private final PageWriter pageWriter;
+    private final LockManager locks = new LockManager();
+    private final PoolMetrics metrics = new PoolMetrics();
+    /** Open pin handles, by the transaction that took them. */
+    private final ConcurrentHashMap<TransactionId, Set<PinnedPage>> pinsByTxn =
+            new ConcurrentHashMap<TransactionId, Set<PinnedPage>>();
+    /** Serializes calls to {@link #resize}. */
+    private final Object resizeLock = new Object();
+    /** Number of frames whose pendingWrite flag is set. */
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * Held while a NO FORCE commit logs its pages and marks them pending,
+     * and while the log is emptied, so that the log is never emptied
+     * between the two.
+     */
+    private final Object commitLog = new Object();
+    /** Number of frames holding, or reserved for, a resident page. */
+    private final AtomicInteger resident = new AtomicInteger();
+    /** Bytes of the frames counted in resident. */
+    private final AtomicLong residentBytes = new AtomicLong();
+    /** Bytes counted in residentBytes, by partition. */
+    private final ConcurrentHashMap<PoolPartition, AtomicLong> partitionBytes =
+            new ConcurrentHashMap<PoolPartition, AtomicLong>();
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages.  The pool's
+     * memory budget is that many pages of the default size; tables with
+     * other page sizes are charged for the pages they actually use.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
-        // some code goes here
+        this(numPages, ReplacementPolicy.create(
+                System.getProperty(ReplacementPolicy.POLICY_PROPERTY), numPages),
+                Boolean.getBoolean(OFF_HEAP_PROPERTY));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages on the heap,
+     * evicting them with the given policy.
+     */
+    BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, false);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, evicting them
+     * with the given policy.
+     *
+     * @param offHeap whether to keep page bytes in preallocated direct memory
+     */
+    BufferPool(int numPages, ReplacementPolicy policy, boolean offHeap) {
+        if (numPages <= 0)
+            throw new IllegalArgumentException("numPages must be positive");
+        this.budget = (long) numPages * pageSize;
+        int nshards = 1;
+        int target = Math.min(MAX_SHARDS, 2 * Runtime.getRuntime().availableProcessors());
+        while (nshards < target)
+            nshards <<= 1;
+        this.shards = newShards(nshards);
+        for (int i = 0; i < nshards; i++)
+            shards[i] = new ConcurrentHashMap<PageId, Frame>(numPages / nshards + 1);
+        this.shardMask = nshards - 1;
+        this.policy = policy;
+        this.arena = offHeap ? new PageArena(numPages, pageSize) : null;
+        this.tier = new CompressedPageCache(Long.getLong(CompressedPageCache.SIZE_PROPERTY, 0));
+        this.prefetcher = new Prefetcher(this, Integer.getInteger(Prefetcher.DEPTH_PROPERTY, 0));
+        this.pageWriter = new PageWriter(this, Integer.getInteger(PageWriter.RATE_PROPERTY, 0));
     }
     
+    @SuppressWarnings("unchecked")
+    private static ConcurrentHashMap<PageId, Frame>[] newShards(int n) {
+        return (ConcurrentHashMap<PageId, Frame>[]) new ConcurrentHashMap<?, ?>[n];
+    }
+
+    /** @return the capacity of this pool, in pages of the default size */
+    public int getNumPages() {
+        return (int) Math.min(Integer.MAX_VALUE, budget / pageSize);
+    }
+
+    /** @return the memory budget of this pool, in bytes of cached pages */
+    public long getBudgetBytes() {
+        return budget;
+    }
+
+    /**
+     * Changes the number of pages of the default size this pool caches,
+     * while it is in use.
+     *
+     * @param numPages the new capacity, in pages
+     * @throws IllegalArgumentException if numPages is not positive
+     * @see #setBudgetBytes
+     */
+    public void resize(int numPages) {
+        if (numPages <= 0)
+            throw new IllegalArgumentException("numPages must be positive");
+        setBudgetBytes((long) numPages * pageSize);
+    }
+
+    /**
+     * Changes the memory budget of this pool while it is in use.
+     * <p>
+     * Growing keeps every cached page.  Shrinking lowers the budget at
+     * once and then evicts the excess pages one at a time, as ordinary
+     * misses do, so that getPage calls in flight carry on meanwhile.
+     * Dirty pages cannot be evicted (NO STEAL); if they are all that is
+     * left over the new budget, this returns with the pool still over
+     * it, and later misses evict the excess as pages become clean.
+     *
+     * @param bytes the new budget, in bytes of cached pages
+     * @throws IllegalArgumentException if bytes is not positive
+     */
+    public void setBudgetBytes(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("budget must be positive");
+        int pages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bytes / pageSize));
+        synchronized (resizeLock) {
+            if (bytes > budget) {
+                if (arena != null)
+                    arena.setNumFrames(pages);
+                policy.setCapacity(pages);
+                budget = bytes;
+            } else {
+                budget = bytes;
+                policy.setCapacity(pages);
+                if (arena != null)
+                    arena.setNumFrames(pages);
+            }
+        }
+        try {
+            while (residentBytes.get() > budget)
+                evictPage(0, null);
+        } catch (DbException e) {
+            // only dirty pages are left over; later misses evict them once clean
+        }
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -66,8 +352,560 @@ public class BufferPool {
      */
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading
+     * it through the given access strategy if it is not already cached.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy how the page should be cached on a miss, or null to
+     *   cache it normally
+     * @see AccessStrategy
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        return getFrame(tid, pid, perm, strategy, false).page;
+    }
+
+    /**
+     * Retrieves a page as {@link #getPage} does, and pins it: the page
+     * stays in the pool, and the Page object stays valid, until the
+     * returned handle is closed.  Pinned pages are never chosen for
+     * eviction, so callers should hold pins only briefly, typically for
+     * as long as they iterate over one page:
+     * <pre>
+     * try (PinnedPage pp = pool.pinPage(tid, pid, Permissions.READ_ONLY)) {
+     *     ... pp.getPage() ...
+     * }
+     * </pre>
+     * A page can be pinned many times over, by one or several
+     * transactions.  Pinning does not stop an aborting transaction's
+     * changes from being dropped, nor discardPage from dropping a page.
+     * Pins a transaction has not closed by the time it completes are
+     * released then, so a handle that is dropped without being closed
+     * holds its frame only until the end of its transaction.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param strategy how the page should be cached on a miss, or null to
+     *   cache it normally
+     */
+    public PinnedPage pinPage(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        return register(tid, getFrame(tid, pid, perm, strategy, true));
+    }
+
+    /**
+     * Pins a page as {@link #pinPage} does, but without locking it, for
+     * reads that tolerate the page changing under them, such as building
+     * a HeapFile's zone map.  The pin is still tid's.
+     */
+    PinnedPage pinUnlocked(TransactionId tid, PageId pid, AccessStrategy strategy)
+        throws TransactionAbortedException, DbException {
+        return register(tid, getFrame(tid, pid, null, strategy, true));
+    }
+
+    /** Hands out a handle on a frame just pinned for tid. */
+    private PinnedPage register(TransactionId tid, Frame f) {
+        PinnedPage pp = new PinnedPage(this, tid, f);
+        Set<PinnedPage> open = pinsByTxn.get(tid);
+        if (open == null) {
+            Set<PinnedPage> fresh = ConcurrentHashMap.newKeySet();
+            open = pinsByTxn.putIfAbsent(tid, fresh);
+            if (open == null)
+                open = fresh;
+        }
+        open.add(pp);
+        return pp;
+    }
+
+    /** Forgets a pin handle that has been closed. */
+    void unpinned(TransactionId tid, PinnedPage pp) {
+        Set<PinnedPage> open = pinsByTxn.get(tid);
+        if (open != null)
+            open.remove(pp);
+    }
+
+    /** Closes the pin handles a transaction has left open. */
+    private void releasePins(TransactionId tid) {
+        Set<PinnedPage> open = pinsByTxn.remove(tid);
+        if (open != null) {
+            for (PinnedPage pp : open)
+                pp.close();
+        }
+    }
+
+    /** As {@link #pinPage(TransactionId, PageId, Permissions, AccessStrategy)}, with normal caching. */
+    public PinnedPage pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Locks, looks up and if necessary loads the frame for pid, pinning it
+     * first if pin is set.  A null perm takes no lock.
+     */
+    private Frame getFrame(TransactionId tid, PageId pid, Permissions perm,
+            AccessStrategy strategy, boolean pin)
+        throws TransactionAbortedException, DbException {
+        if (perm != null)
+            lockPage(tid, pid, perm);
+        prefetcher.accessed(pid, strategy);
+        ConcurrentHashMap<PageId, Frame> shard = shardFor(pid);
+        while (true) {
+            Frame f = shard.get(pid);
+            if (f == null) {
+                Frame mine = new Frame(pid);
+                if (pin)
+                    mine.pins.set(1);
+                f = shard.putIfAbsent(pid, mine);
+                if (f == null) {
+                    metrics.misses.increment();
+                    long start = System.nanoTime();
+                    load(shard, mine, strategy);
+                    metrics.missLatency.record(System.nanoTime() - start);
+                    return mine;
+                }
+            }
+            if (f.state.get() == Frame.LOADING)
+                f.awaitLoaded();
+            if (pin)
+                f.pins.incrementAndGet();
+            int state;
+            while ((state = f.state.get()) == Frame.EVICTING)
+                Thread.yield();
+            if (state == Frame.RESIDENT) {
+                policy.access(f);
+                if (f.hits < Frame.HOT_HITS)
+                    f.hits++;
+                metrics.hits.increment();
+                if (f.prefetched) {
+                    f.prefetched = false;
+                    // a ring scan owns the pages read ahead for it
+                    if (strategy != null)
+                        addToRing(strategy, f);
+                }
+                return f;
+            }
+            // the frame was evicted or its load failed; retry the lookup
+            if (pin)
+                f.pins.decrementAndGet();
+            shard.remove(pid, f);
+        }
+    }
+
+    /**
+     * Locks a page for tid as getPage does, without reading it.  A scan
+     * that passes over pages it can tell hold no match locks them this
+     * way, so that the pages it did not read cannot change under it
+     * either.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the permissions the lock is for
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException {
+        locks.acquire(tid, pid, perm == Permissions.READ_WRITE);
+    }
+
+    /**
+     * Reads a page into the pool ahead of demand, unless it is already
+     * there.  Read-ahead is advisory: failures, including finding no clean
+     * page to evict, are ignored.
+     *
+     * @return whether this call read the page
+     */
+    boolean prefetchPage(PageId pid) {
+        ConcurrentHashMap<PageId, Frame> shard = shardFor(pid);
+        if (shard.containsKey(pid))
+            return false;
+        Frame mine = new Frame(pid);
+        mine.prefetched = true;
+        if (shard.putIfAbsent(pid, mine) != null)
+            return false;
+        try {
+            load(shard, mine, null);
+            return true;
+        } catch (DbException e) {
+            // the pool is full of dirty pages; the scan will read it itself
+        } catch (RuntimeException e) {
+            // e.g. the table shrank or was dropped
+        }
+        return false;
+    }
+
+    /** @return the read-ahead depth for sequential scans, in pages */
+    public int getPrefetchDepth() {
+        return prefetcher.getDepth();
+    }
+
+    /**
+     * Sets how many pages ahead of a sequential scan the pool reads; zero
+     * turns read-ahead off.  Takes effect immediately.
+     */
+    public void setPrefetchDepth(int depth) {
+        prefetcher.setDepth(depth);
+    }
+
+    /** @return the background writer's rate, in pages per second */
+    public int getWriteRate() {
+        return pageWriter.getRate();
+    }
+
+    /**
+     * Sets how many committed pages per second the background writer
+     * writes; zero turns it off, so that commits write their own pages.
+     * Takes effect immediately.
+     */
+    public void setWriteRate(int pagesPerSecond) {
+        pageWriter.setRate(pagesPerSecond);
+    }
+
+    /** @return pages written by the background writer over the last second */
+    public double getPagesWrittenPerSecond() {
+        return pageWriter.getPagesWrittenPerSecond();
+    }
+
+    /** @return the total number of pages written by the background writer */
+    public long getBackgroundPagesWritten() {
+        return pageWriter.getPagesWritten();
+    }
+
+    /**
+     * @return a snapshot of this pool's counters
+     * @see BufferPoolMXBean
+     */
+    public BufferPoolStats getStats() {
+        return new BufferPoolStats(budget, residentBytes.get(), resident.get(), metrics, tier,
+                pageWriter.getPagesWritten(), pending.get(), locks);
+    }
+
+    /** @return the number of cached pages whose committed state is not on disk */
+    int pendingWrites() {
+        return pending.get();
+    }
+
+    /** First word of a file written by saveResidentPages. */
+    private static final int RESIDENT_FILE_MAGIC = 0x53445750;
+
+    /**
+     * Writes the ids of the pages now cached to a file, hottest first, for
+     * {@link #loadResidentPages} to read back into a later pool.  The file
+     * is replaced atomically, so a crash mid-write leaves the old one.
+     *
+     * @return the number of page ids written
+     * @see WarmRestart
+     */
+    public int saveResidentPages(File file) throws IOException {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> shard : shards)
+            for (Frame f : shard.values())
+                if (f.state.get() == Frame.RESIDENT && f.pid instanceof HeapPageId)
+                    frames.add(f);
+        frames.sort(new Comparator<Frame>() {
+            public int compare(Frame a, Frame b) {
+                return Integer.compare(b.hits, a.hits);
+            }
+        });
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(RESIDENT_FILE_MAGIC);
+            out.writeInt(frames.size());
+            for (Frame f : frames) {
+                out.writeInt(f.pid.getTableId());
+                out.writeInt(f.pid.getPageNumber());
+            }
+        }
+        java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                java.nio.file.StandardCopyOption.REPLACE_EXISTING,
+                java.nio.file.StandardCopyOption.ATOMIC_MOVE);
+        return frames.size();
+    }
+
+    /**
+     * Reads into this pool the pages listed in a file written by
+     * {@link #saveResidentPages}, taking them hottest first for as long as
+     * they fit in the free part of the budget, and reading them in table
+     * and page order so that each file is read sequentially.  Pages of
+     * tables no longer in the catalog, or beyond the end of their file,
+     * are skipped.  Loading stops once the pool is full rather than evict
+     * pages, so it is safe to run while the pool is in use.
+     *
+     * @return the number of pages read into the pool
+     */
+    public int loadResidentPages(File file) throws IOException {
+        List<PageId> wanted = new ArrayList<PageId>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != RESIDENT_FILE_MAGIC)
+                throw new IOException(file + " is not a list of resident pages");
+            int n = in.readInt();
+            long free = budget - residentBytes.get();
+            Catalog catalog = Database.getCatalog();
+            for (int i = 0; i < n && free > 0; i++) {
+                HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+                DbFile f;
+                try {
+                    f = catalog.getDatabaseFile(pid.getTableId());
+                } catch (java.util.NoSuchElementException e) {
+                    continue;
+                }
+                if (!(f instanceof HeapFile) || pid.getPageNumber() >= ((HeapFile) f).numPages())
+                    continue;
+                if (f.getPageSize() > free)
+                    break;
+                free -= f.getPageSize();
+                wanted.add(pid);
+            }
+        }
+        wanted.sort(new Comparator<PageId>() {
+            public int compare(PageId a, PageId b) {
+                int c = Integer.compare(a.getTableId(), b.getTableId());
+                return c != 0 ? c : Integer.compare(a.getPageNumber(), b.getPageNumber());
+            }
+        });
+        int loaded = 0;
+        for (PageId pid : wanted) {
+            if (shardFor(pid).containsKey(pid))
+                continue;
+            int size = Database.getCatalog().getDatabaseFile(pid.getTableId()).getPageSize();
+            if (residentBytes.get() + size > budget)
+                break;
+            if (prefetchPage(pid))
+                loaded++;
+        }
+        return loaded;
+    }
+
+    private ConcurrentHashMap<PageId, Frame> shardFor(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & shardMask];
+    }
+
+    /**
+     * Returns the access strategy a sequential scan over a table of the
+     * given size should use: a ring if the table is more than a quarter of
+     * the pool and does not fit in the room the pool has free, since caching
+     * it would evict much of the working set for the sake of one table, and
+     * null (normal caching) otherwise.
+     */
+    public AccessStrategy scanStrategy(int tablePages) {
+        return scanStrategy(tablePages, pageSize);
+    }
+
+    /**
+     * Returns the access strategy for a sequential scan over a table of
+     * tablePages pages of pageSize bytes each; as {@link #scanStrategy(int)},
+     * but comparing the table's bytes with a quarter of the pool's budget
+     * and with its free bytes.  A ring takes up to an eighth of the budget.
+     */
+    public AccessStrategy scanStrategy(int tablePages, int pageSize) {
+        long b = budget;
+        long bytes = (long) tablePages * pageSize;
+        if (bytes <= b / 4 || bytes <= b - residentBytes.get())
+            return null;
+        return AccessStrategy.ring((int) Math.max(1, Math.min(MAX_SCAN_RING, b / 8 / pageSize)));
+    }
+
+    /**
+     * Reads the page for a frame this thread has just published in the
+     * page table, after making room for it in the pool.
+     */
+    private Page load(ConcurrentHashMap<PageId, Frame> shard, Frame f,
+            AccessStrategy strategy)
+        throws DbException {
+        boolean reserved = false;
+        boolean ok = false;
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(f.pid.getTableId());
+            f.size = file.getPageSize();
+            if (strategy != null)
+                recycle(strategy);
+            reserveFrame(f);
+            reserved = true;
+            f.page = readPage(f, file);
+            policy.admit(f);
+            if (strategy != null)
+                addToRing(strategy, f);
+            ok = true;
+            return f.page;
+        } finally {
+            if (!ok) {
+                shard.remove(f.pid, f);
+                if (f.arenaFrame != null)
+                    arena.release(f.arenaFrame);
+                if (reserved)
+                    unreserve(f);
+            }
+            f.finishLoading(ok ? Frame.RESIDENT : Frame.EVICTED);
+        }
+    }
+
+    /**
+     * Reads a frame's page from disk, into arena memory if the pool is off
+     * the heap and the page belongs to a heap file with pages of the
+     * arena's size.  Subclasses of HeapFile may override readPage, so their
+     * pages are always read through it.
+     */
+    private Page readPage(Frame f, DbFile file) {
+        if (tier.isEnabled() && file.getClass() == HeapFile.class) {
+            byte[] data = tier.take(f.pid, f.size);
+            if (data != null) {
+                metrics.compressedHits.increment();
+                return pageFrom(f, (HeapFile) file, data);
+            }
+        }
+        long start = System.nanoTime();
+        Page p = null;
+        if (arena != null && file.getClass() == HeapFile.class && arena.pageSize() == f.size) {
+            ByteBuffer buf = arena.allocate();
+            if (buf != null) {
+                f.arenaFrame = buf;
+                p = ((HeapFile) file).readPage(f.pid, buf);
+            }
+        }
+        if (p == null)
+            p = file.readPage(f.pid);
+        metrics.pageRead(f.pid, System.nanoTime() - start);
+        return p;
+    }
+
+    /** Makes a HeapPage of bytes from the second tier, in arena memory if there is some. */
+    private Page pageFrom(Frame f, HeapFile file, byte[] data) {
+        HeapPageId pid = (HeapPageId) f.pid;
+        try {
+            ByteBuffer buf = arena != null && arena.pageSize() == f.size ? arena.allocate() : null;
+            if (buf == null)
+                return file.newPage(pid, ByteBuffer.wrap(data));
+            ByteBuffer dst = buf.duplicate();
+            dst.clear();
+            dst.put(data);
+            f.arenaFrame = buf;
+            return file.newPage(pid, buf);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to decode page " + pid, e);
+        }
+    }
+
+    /** @return the size of the compressed second tier, in bytes; zero if it is off */
+    public long getCompressedCacheBytes() {
+        return tier.getCapacity();
+    }
+
+    /**
+     * Sets the size of the second tier that keeps evicted clean pages in
+     * compressed form; zero turns it off and empties it.
+     *
+     * @see CompressedPageCache
+     */
+    public void setCompressedCacheBytes(long bytes) {
+        tier.setCapacity(bytes);
+    }
+
+    /** Writes a page to its file, counting the write. */
+    private void writePage(Page p) throws IOException {
+        PageId pid = p.getId();
+        long start = System.nanoTime();
+        // forced, like batches, so a page whose pending write this clears
+        // is on disk before the log that covers it can be emptied
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePages(Collections.singletonList(p));
+        metrics.pageWritten(pid, System.nanoTime() - start);
+    }
+
+    /**
+     * Evicts the frame in the strategy's next ring position, if there is
+     * one and it is still clean, so that the coming load reuses its space.
+     */
+    private void recycle(AccessStrategy strategy) {
+        Frame old = strategy.ring[strategy.next];
+        strategy.ring[strategy.next] = null;
+        if (old != null && old.state.get() == Frame.RESIDENT
+                && old.page.isDirty() == null && !old.pendingWrite
+                && claim(old)) {
+            evicted(old);
+        }
+    }
+
+    /**
+     * Records f in the strategy's ring, first recycling whatever frame
+     * holds that ring position if it has not been recycled already.
+     */
+    private void addToRing(AccessStrategy strategy, Frame f) {
+        if (strategy.ring[strategy.next] != null)
+            recycle(strategy);
+        strategy.ring[strategy.next] = f;
+        strategy.next = (strategy.next + 1) % strategy.ring.length;
+    }
+
+    /**
+     * Counts one more resident frame, of f's size and in its table's
+     * partition, evicting pages until it fits in the budget and within the
+     * partition's maximum.  A page larger than the whole budget is let
+     * into an otherwise empty pool, and one larger than the partition's
+     * maximum into an otherwise empty partition.
+     */
+    private void reserveFrame(Frame f) throws DbException {
+        PoolPartition part = Database.getCatalog().getPartition(f.pid.getTableId());
+        AtomicLong used = null;
+        if (part != null) {
+            used = partitionBytes.computeIfAbsent(part, p -> new AtomicLong());
+            while (true) {
+                long n = used.get();
+                if (n + f.size <= part.getMaxBytes() || n == 0) {
+                    if (used.compareAndSet(n, n + f.size))
+                        break;
+                } else {
+                    evictFromPartition(f.size, part, used);
+                }
+            }
+        }
+        f.partition = part;
+        f.partitionBytes = used;
+        boolean ok = false;
+        try {
+            while (true) {
+                long n = residentBytes.get();
+                if (n + f.size <= budget || n == 0) {
+                    if (residentBytes.compareAndSet(n, n + f.size)) {
+                        resident.incrementAndGet();
+                        ok = true;
+                        return;
+                    }
+                } else {
+                    evictPage(f.size, part);
+                }
+            }
+        } finally {
+            if (!ok && used != null)
+                used.addAndGet(-f.size);
+        }
+    }
+
+    /** Undoes reserveFrame for a frame that is leaving, or never joined, the pool. */
+    private void unreserve(Frame f) {
+        resident.decrementAndGet();
+        residentBytes.addAndGet(-f.size);
+        if (f.partitionBytes != null)
+            f.partitionBytes.addAndGet(-f.size);
+    }
+
+    /**
+     * @return the bytes the pages of a partition's tables occupy in this
+     *   pool
+     */
+    public long getResidentBytes(PoolPartition partition) {
+        AtomicLong used = partitionBytes.get(partition);
+        return used == null ? 0 : used.get();
     }
 
     /**
@@ -80,8 +918,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public  void releasePage(TransactionId tid, PageId pid) {
-        // some code goes here
-        // not necessary for lab1|lab2
+        locks.release(tid, pid);
     }
 
     /**
@@ -90,15 +927,12 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return locks.holdsLock(tid, p);
     }
 
     /**
@@ -110,8 +944,105 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            complete(tid, commit);
+        } finally {
+            releasePins(tid);
+            locks.releaseAll(tid);
+        }
+    }
+
+    private void complete(TransactionId tid, boolean commit) throws IOException {
+        List<Frame> dirtied = framesDirtiedBy(tid);
+        if (!commit) {
+            for (Frame f : dirtied)
+                revert(f);
+            return;
+        }
+        LogFile log = Database.getLogFile();
+        synchronized (commitLog) {
+            if (pageWriter.getRate() > 0) {
+                // NO FORCE: the forced log makes the changes durable, and
+                // LogFile.recover redoes them if the writer has not written
+                // them by a crash
+                for (Frame f : dirtied)
+                    log.logWrite(tid, f.page.getBeforeImage(), f.page);
+                log.logCommit(tid);
+                for (Frame f : dirtied) {
+                    synchronized (f) {
+                        Page p = f.page;
+                        p.setBeforeImage();
+                        p.markDirty(false, null);
+                        setPendingWrite(f, true);
+                    }
+                }
+                pageWriter.wake();
+                return;
+            }
+            // FORCE commits are not logged, so recovery would redo older
+            // logged images over them; write what the log holds first
+            if (!log.isEmpty())
+                emptyLog(log);
+        }
+        flushFrames(dirtied, false);
+        for (Frame f : dirtied)
+            f.page.setBeforeImage();
+    }
+
+    /**
+     * Writes every page with a logged commit pending and then empties the
+     * log.  Called holding commitLog.
+     */
+    private void emptyLog(LogFile log) throws IOException {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> shard : shards) {
+            for (Frame f : shard.values()) {
+                if (f.pendingWrite)
+                    frames.add(f);
+            }
+        }
+        flushFrames(frames, true);
+        if (pending.get() != 0)
+            throw new IOException("unable to write the pages of logged commits");
+        log.clear();
+    }
+
+    /**
+     * Empties the log if every commit it holds has been written.  Called
+     * by the background writer when it runs out of pages to write, so the
+     * log does not grow for as long as the database runs.
+     */
+    void truncateLog() throws IOException {
+        synchronized (commitLog) {
+            LogFile log = Database.getLogFile();
+            if (pending.get() == 0 && !log.isEmpty())
+                log.clear();
+        }
+    }
+
+    /** Returns the resident frames whose page was last dirtied by tid. */
+    private List<Frame> framesDirtiedBy(TransactionId tid) {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> shard : shards) {
+            for (Frame f : shard.values()) {
+                Page p = f.page;
+                if (p != null && f.state.get() == Frame.RESIDENT && tid.equals(p.isDirty()))
+                    frames.add(f);
+            }
+        }
+        return frames;
+    }
+
+    /**
+     * Undoes an aborted transaction's changes to a frame by dropping it, and
+     * any copy in the second tier, so that the page is read again from disk,
+     * after first writing any committed changes that disk does not have yet.
+     */
+    private void revert(Frame f) throws IOException {
+        writeBack(f);
+        if (drop(f))
+            retire(f);
+        tier.remove(f.pid);
     }
 
     /**
@@ -131,8 +1062,9 @@ public class BufferPool {
      */
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        for (Page p : file.insertTuple(tid, t))
+            installDirty(tid, p);
     }
 
     /**
@@ -150,8 +1082,75 @@ public class BufferPool {
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in any table");
+        DbFile file = Database.getCatalog().getDatabaseFile(rid.getPageId().getTableId());
+        for (Page p : file.deleteTuple(tid, t))
+            installDirty(tid, p);
+    }
+
+    /**
+     * Marks a page dirtied by tid and makes it the cached version of its
+     * page, caching it if the page was evicted while it was being changed.
+     */
+    private void installDirty(TransactionId tid, Page p) throws DbException {
+        p.markDirty(true, tid);
+        locks.noteUpdate(tid);
+        PageId pid = p.getId();
+        ConcurrentHashMap<PageId, Frame> shard = shardFor(pid);
+        while (true) {
+            Frame f = shard.get(pid);
+            if (f == null) {
+                Frame mine = new Frame(pid);
+                if (shard.putIfAbsent(pid, mine) != null)
+                    continue;
+                boolean ok = false;
+                boolean reserved = false;
+                try {
+                    mine.size = Database.getCatalog().getDatabaseFile(pid.getTableId()).getPageSize();
+                    reserveFrame(mine);
+                    reserved = true;
+                    mine.page = p;
+                    policy.admit(mine);
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        shard.remove(pid, mine);
+                        if (reserved)
+                            unreserve(mine);
+                    }
+                    mine.finishLoading(ok ? Frame.RESIDENT : Frame.EVICTED);
+                }
+                break;
+            }
+            if (f.state.get() == Frame.LOADING)
+                f.awaitLoaded();
+            while (f.state.get() == Frame.EVICTING)
+                Thread.yield();
+            if (f.state.get() == Frame.RESIDENT) {
+                if (f.page != p)
+                    replacePage(f, p);
+                break;
+            }
+            shard.remove(pid, f);
+        }
+        // the page may have been evicted to the second tier with the change
+        // already made; see evicted for an eviction still under way
+        tier.remove(pid);
+    }
+
+    /** Swaps the page cached in a resident frame for another version of it. */
+    private void replacePage(Frame f, Page p) {
+        synchronized (f) {
+            ByteBuffer buf = f.arenaFrame;
+            if (buf != null) {
+                ((HeapPage) f.page).detach();
+                f.arenaFrame = null;
+                arena.release(buf);
+            }
+            f.page = p;
+        }
     }
 
     /**
@@ -160,9 +1159,10 @@ public class BufferPool {
      *     break simpledb if running in NO STEAL mode.
      */
     public synchronized void flushAllPages() throws IOException {
-        // some code goes here
-        // not necessary for lab1
-
+        List<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> shard : shards)
+            frames.addAll(shard.values());
+        flushFrames(frames, false);
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -173,34 +1173,320 @@ public class BufferPool {
         Also used by B+ tree files to ensure that deleted pages
         are removed from the cache so they can be reused safely
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // not necessary for lab1
+    public void discardPage(PageId pid) {
+        Frame f = shardFor(pid).get(pid);
+        if (f != null && drop(f))
+            retire(f);
+        tier.remove(pid);
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized  void flushPage(PageId pid) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+    private void flushPage(PageId pid) throws IOException {
+        Frame f = shardFor(pid).get(pid);
+        if (f != null)
+            flushFrame(f);
+    }
+
+    /** Writes a frame's page if it is dirty or has committed changes pending. */
+    private void flushFrame(Frame f) throws IOException {
+        synchronized (f) {
+            if (f.state.get() != Frame.RESIDENT)
+                return;
+            Page p = f.page;
+            if (p.isDirty() != null) {
+                writePage(p);
+                p.markDirty(false, null);
+                setPendingWrite(f, false);
+            }
+        }
+        writeBack(f);
+    }
+
+    /**
+     * Writes the committed state of a frame's page, its before image, if
+     * that has changes not yet on disk.
+     *
+     * @return whether the page was written
+     */
+    private boolean writeBack(Frame f) throws IOException {
+        synchronized (f) {
+            if (!f.pendingWrite || f.state.get() != Frame.RESIDENT)
+                return false;
+            writePage(f.page.getBeforeImage());
+            setPendingWrite(f, false);
+            return true;
+        }
+    }
+
+    /** Sets a frame's pendingWrite flag; the caller holds its monitor. */
+    private void setPendingWrite(Frame f, boolean value) {
+        if (f.pendingWrite != value) {
+            f.pendingWrite = value;
+            if (value)
+                pending.incrementAndGet();
+            else
+                pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes up to max pages with committed changes pending, for the
+     * background writer.
+     *
+     * @return the number of pages written
+     */
+    int writePending(int max) throws IOException {
+        List<Frame> frames = new ArrayList<Frame>();
+        for (ConcurrentHashMap<PageId, Frame> shard : shards) {
+            for (Frame f : shard.values()) {
+                if (frames.size() >= max)
+                    break;
+                if (f.pendingWrite)
+                    frames.add(f);
+            }
+        }
+        return flushFrames(frames, true);
+    }
+
+    /**
+     * Writes the pages of the given frames as flushFrame does, but in
+     * batches: the frames are sorted by table and page number, and each
+     * table's are handed to one {@link DbFile#writePages} call, which can
+     * coalesce neighbouring pages and sync the file once.  The frames of a
+     * batch are locked in that same order, so concurrent batches cannot
+     * deadlock.
+     *
+     * @param committedOnly write only committed changes, as writeBack
+     *   does, leaving the pages of running transactions alone
+     * @return the number of pages written
+     */
+    private int flushFrames(Collection<Frame> frames, boolean committedOnly) throws IOException {
+        List<Frame> sorted = new ArrayList<Frame>(frames);
+        sorted.sort(FRAME_ORDER);
+        int written = 0;
+        int i = 0;
+        while (i < sorted.size()) {
+            int tableId = sorted.get(i).pid.getTableId();
+            int j = i + 1;
+            while (j < sorted.size() && j - i < MAX_BATCH
+                    && sorted.get(j).pid.getTableId() == tableId)
+                j++;
+            written += writeBatch(sorted.subList(i, j), 0, committedOnly);
+            i = j;
+        }
+        return written;
+    }
+
+    private static final Comparator<Frame> FRAME_ORDER = new Comparator<Frame>() {
+        public int compare(Frame a, Frame b) {
+            int c = Integer.compare(a.pid.getTableId(), b.pid.getTableId());
+            return c != 0 ? c : Integer.compare(a.pid.getPageNumber(), b.pid.getPageNumber());
+        }
+    };
+
+    /**
+     * Takes the monitors of batch[i..] one per call, then writes whatever
+     * the frames hold that disk does not: a dirty page itself, unless
+     * committedOnly is set, or else the committed before image of a page
+     * with a pending write.
+     */
+    private int writeBatch(List<Frame> batch, int i, boolean committedOnly) throws IOException {
+        if (i < batch.size()) {
+            synchronized (batch.get(i)) {
+                return writeBatch(batch, i + 1, committedOnly);
+            }
+        }
+        List<Frame> frames = new ArrayList<Frame>(batch.size());
+        List<Page> images = new ArrayList<Page>(batch.size());
+        for (Frame f : batch) {
+            if (f.state.get() != Frame.RESIDENT)
+                continue;
+            Page p = f.page;
+            if (p.isDirty() != null && !committedOnly)
+                images.add(p);
+            else if (f.pendingWrite)
+                images.add(p.getBeforeImage());
+            else
+                continue;
+            frames.add(f);
+        }
+        if (images.isEmpty())
+            return 0;
+        PageId first = images.get(0).getId();
+        long start = System.nanoTime();
+        Database.getCatalog().getDatabaseFile(first.getTableId()).writePages(images);
+        long each = (System.nanoTime() - start) / images.size();
+        for (Frame f : frames) {
+            metrics.pageWritten(f.pid, each);
+            if (!committedOnly)
+                f.page.markDirty(false, null);
+            setPendingWrite(f, false);
+        }
+        return images.size();
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        flushFrames(framesDirtiedBy(tid), false);
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * <p>
+     * Victims are proposed by the replacement policy.  Dirty pages are
+     * never chosen (NO STEAL), so this throws if every resident page is
+     * dirty.  Pages whose committed changes the background writer has not
+     * written yet are passed over unless there is nothing else, in which
+     * case one is written here first.  Pages of a partition at or below
+     * its minimum are left alone, unless the caller is making room for a
+     * page of that same partition.  This returns without evicting if
+     * another thread freed enough room in the meantime.
+     *
+     * @param needed the bytes the caller is making room for
+     * @param requester the partition of the page the caller is making room
+     *   for, or null
+     */
+    private void evictPage(long needed, PoolPartition requester) throws DbException {
+        evict(needed, requester, null);
+    }
+
+    /**
+     * Evicts a page of a partition that has no room left under its
+     * maximum for another page of the given size.
+     */
+    private void evictFromPartition(long needed, PoolPartition part, AtomicLong used) throws DbException {
+        evict(needed, part, used);
+    }
+
+    /**
+     * Does the work of evictPage and, if used is not null,
+     * evictFromPartition: in that case only pages of the requester's
+     * partition are candidates, and there is room once needed more bytes
+     * fit under the partition's maximum.
+     */
+    private void evict(long needed, PoolPartition requester, AtomicLong used) throws DbException {
+        Frame unwritten = null;
+        int candidates = Math.max(getNumPages(), resident.get());
+        for (int n = 0; n <= candidates; n++) {
+            if (used != null ? used.get() + needed <= requester.getMaxBytes()
+                    : residentBytes.get() + needed <= budget)
+                return;
+            Frame f = policy.nextVictim();
+            if (f == null)
+                continue;
+            if (used != null ? f.partition != requester : keptForPartition(f, requester))
+                continue;
+            if (f.state.get() != Frame.RESIDENT || f.page.isDirty() != null)
+                continue;
+            if (f.pendingWrite) {
+                if (unwritten == null)
+                    unwritten = f;
+                continue;
+            }
+            if (claim(f)) {
+                evicted(f);
+                return;
+            }
+        }
+        if (unwritten == null)
+            throw new DbException(used != null
+                    ? "all pages in buffer pool partition " + requester.getName() + " are dirty or pinned"
+                    : "all pages in the buffer pool are dirty, pinned or kept for a partition");
+        try {
+            writeBack(unwritten);
+        } catch (IOException e) {
+            throw new DbException("unable to write back page " + unwritten.pid + ": " + e);
+        }
+        // the caller retries if the page changed again in the meantime
+        if (unwritten.page.isDirty() == null && !unwritten.pendingWrite
+                && claim(unwritten)) {
+            evicted(unwritten);
+        }
+    }
+
+    /**
+     * @return whether f belongs to a partition other than requester that
+     *   is down to its minimum number of bytes
      */
-    private synchronized  void evictPage() throws DbException {
-        // some code goes here
-        // not necessary for lab1
+    private static boolean keptForPartition(Frame f, PoolPartition requester) {
+        PoolPartition p = f.partition;
+        return p != null && p != requester && f.partitionBytes.get() <= p.getMinBytes();
+    }
+
+    /**
+     * Moves a resident frame to EVICTED unless it is pinned.  The frame
+     * passes through EVICTING so that a getPage pinning it at the same
+     * moment waits to see which of the two won, rather than finding it
+     * gone.
+     *
+     * @return true if this thread evicted the frame and must retire it
+     */
+    private boolean claim(Frame f) {
+        if (f.pins.get() > 0 || !f.state.compareAndSet(Frame.RESIDENT, Frame.EVICTING))
+            return false;
+        if (f.pins.get() > 0) {
+            f.state.set(Frame.RESIDENT);
+            return false;
+        }
+        f.state.set(Frame.EVICTED);
+        return true;
+    }
+
+    /**
+     * Moves a resident frame to EVICTED whether or not it is pinned, for
+     * pages that must leave the pool.
+     *
+     * @return true if this thread evicted the frame and must retire it
+     */
+    private boolean drop(Frame f) {
+        while (true) {
+            if (f.state.compareAndSet(Frame.RESIDENT, Frame.EVICTED))
+                return true;
+            if (f.state.get() != Frame.EVICTING)
+                return false;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes a clean frame that this thread evicted, keeping a compressed
+     * copy of its page in the second tier if that is on.
+     */
+    private void evicted(Frame f) {
+        boolean kept = tier.isEnabled() && f.page instanceof HeapPage
+                && Database.getCatalog().getDatabaseFile(f.pid.getTableId()).getClass() == HeapFile.class;
+        if (kept)
+            tier.put(f.pid, f.page.getPageData());
+        retire(f);
+        // a transaction that changed the page while it was being evicted
+        // caches it again, and may have cleared the tier before the put
+        if (kept && shardFor(f.pid).containsKey(f.pid))
+            tier.remove(f.pid);
+        metrics.evictions.increment();
+    }
+
+    /** Removes a frame that this thread moved to EVICTED. */
+    private void retire(Frame f) {
+        shardFor(f.pid).remove(f.pid, f);
+        synchronized (f) {
+            // a discarded page's pending changes are dropped with it
+            setPendingWrite(f, false);
+        }
+        policy.remove(f);
+        ByteBuffer buf = f.arenaFrame;
+        if (buf != null) {
+            // only heap files are read into the arena; whoever still holds
+            // the page keeps a heap copy once the frame is reused
+            ((HeapPage) f.page).detach();
+            f.arenaFrame = null;
+            arena.release(buf);
+        }
+        unreserve(f);
     }
 
 }
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.Map;
+
+/**
+ * The JMX view of the database's buffer pool, registered as
+ * {@value #OBJECT_NAME}.  It always describes the pool currently returned
+ * by {@link Database#getBufferPool}, so it survives
+ * {@link Database#resetBufferPool}; counters start over with each pool.
+ *
+ * @see BufferPoolStats
+ */
+public interface BufferPoolMXBean {
+
+    String OBJECT_NAME = "simpledb:type=BufferPool";
+
+    int getCapacity();
+
+    /** Resizes the pool; see {@link BufferPool#resize}. */
+    void setCapacity(int pages);
+
+    int getResidentPages();
+
+    long getBudgetBytes();
+
+    /** Changes the pool's memory budget; see {@link BufferPool#setBudgetBytes}. */
+    void setBudgetBytes(long bytes);
+
+    long getResidentBytes();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getCompressedHits();
+
+    long getCompressedBytes();
+
+    /** Sets the size of the compressed second tier; see {@link BufferPool#setCompressedCacheBytes}. */
+    void setCompressedCacheBytes(long bytes);
+
+    long getCompressedCacheBytes();
+
+    long getEvictions();
+
+    long getPagesRead();
+
+    long getPagesWritten();
+
+    long getBackgroundWrites();
+
+    int getPendingWrites();
+
+    /** Pages read from disk, keyed by table name. */
+    Map<String, Long> getPagesReadByTable();
+
+    /** Pages written to disk, keyed by table name. */
+    Map<String, Long> getPagesWrittenByTable();
+
+    long getLockWaits();
+
+    double getLockWaitMillis();
+
+    long getDeadlocks();
+
+    long getLockEscalations();
+
+    double getMissLatencyMeanMicros();
+
+    double getMissLatencyP99Micros();
+
+    double getReadLatencyMeanMicros();
+
+    double getWriteLatencyMeanMicros();
+
+    /** The background writer's rate, in pages per second; zero is off. */
+    int getWriteRate();
+
+    void setWriteRate(int pagesPerSecond);
+
+    int getPrefetchDepth();
+
+    void setPrefetchDepth(int pages);
+}
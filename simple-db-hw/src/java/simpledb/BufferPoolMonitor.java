@@ -0,0 +1,190 @@
+package simpledb;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes {@link BufferPoolMXBean} on the platform MBean server.  Each
+ * attribute is read from a fresh {@link BufferPoolStats} snapshot of the
+ * current pool.
+ */
+class BufferPoolMonitor implements BufferPoolMXBean {
+
+    private static boolean registered;
+
+    /**
+     * Registers the MBean unless that has been done already.  JMX is a
+     * convenience, so if registration fails the database runs without it.
+     */
+    static synchronized void register() {
+        if (registered)
+            return;
+        registered = true;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name))
+                server.registerMBean(new BufferPoolMonitor(), name);
+        } catch (JMException e) {
+            e.printStackTrace();
+        } catch (SecurityException e) {
+            // not allowed to register; run without JMX
+        }
+    }
+
+    private static BufferPool pool() {
+        return Database.getBufferPool();
+    }
+
+    private static BufferPoolStats stats() {
+        return pool().getStats();
+    }
+
+    private static Map<String, Long> byTableName(Map<Integer, Long> byId) {
+        Map<String, Long> out = new HashMap<String, Long>();
+        for (Map.Entry<Integer, Long> e : byId.entrySet()) {
+            String name;
+            try {
+                name = Database.getCatalog().getTableName(e.getKey());
+            } catch (NoSuchElementException ex) {
+                name = String.valueOf(e.getKey());
+            }
+            out.put(name, e.getValue());
+        }
+        return out;
+    }
+
+    public int getCapacity() {
+        return stats().getCapacity();
+    }
+
+    public void setCapacity(int pages) {
+        pool().resize(pages);
+    }
+
+    public int getResidentPages() {
+        return stats().getResidentPages();
+    }
+
+    public long getBudgetBytes() {
+        return stats().getBudgetBytes();
+    }
+
+    public void setBudgetBytes(long bytes) {
+        pool().setBudgetBytes(bytes);
+    }
+
+    public long getResidentBytes() {
+        return stats().getResidentBytes();
+    }
+
+    public long getHits() {
+        return stats().getHits();
+    }
+
+    public long getMisses() {
+        return stats().getMisses();
+    }
+
+    public double getHitRatio() {
+        return stats().getHitRatio();
+    }
+
+    public long getCompressedHits() {
+        return stats().getCompressedHits();
+    }
+
+    public long getCompressedBytes() {
+        return stats().getCompressedBytes();
+    }
+
+    public void setCompressedCacheBytes(long bytes) {
+        pool().setCompressedCacheBytes(bytes);
+    }
+
+    public long getCompressedCacheBytes() {
+        return pool().getCompressedCacheBytes();
+    }
+
+    public long getEvictions() {
+        return stats().getEvictions();
+    }
+
+    public long getPagesRead() {
+        return stats().getPagesRead();
+    }
+
+    public long getPagesWritten() {
+        return stats().getPagesWritten();
+    }
+
+    public long getBackgroundWrites() {
+        return stats().getBackgroundWrites();
+    }
+
+    public int getPendingWrites() {
+        return stats().getPendingWrites();
+    }
+
+    public Map<String, Long> getPagesReadByTable() {
+        return byTableName(stats().getPagesReadByTable());
+    }
+
+    public Map<String, Long> getPagesWrittenByTable() {
+        return byTableName(stats().getPagesWrittenByTable());
+    }
+
+    public long getLockWaits() {
+        return stats().getLockWaits().getCount();
+    }
+
+    public double getLockWaitMillis() {
+        return stats().getLockWaits().getTotalNanos() / 1e6;
+    }
+
+    public long getDeadlocks() {
+        return stats().getDeadlocks();
+    }
+
+    public long getLockEscalations() {
+        return stats().getLockEscalations();
+    }
+
+    public double getMissLatencyMeanMicros() {
+        return stats().getMissLatency().getMeanNanos() / 1e3;
+    }
+
+    public double getMissLatencyP99Micros() {
+        return stats().getMissLatency().getPercentileNanos(0.99) / 1e3;
+    }
+
+    public double getReadLatencyMeanMicros() {
+        return stats().getReadLatency().getMeanNanos() / 1e3;
+    }
+
+    public double getWriteLatencyMeanMicros() {
+        return stats().getWriteLatency().getMeanNanos() / 1e3;
+    }
+
+    public int getWriteRate() {
+        return pool().getWriteRate();
+    }
+
+    public void setWriteRate(int pagesPerSecond) {
+        pool().setWriteRate(pagesPerSecond);
+    }
+
+    public int getPrefetchDepth() {
+        return pool().getPrefetchDepth();
+    }
+
+    public void setPrefetchDepth(int pages) {
+        pool().setPrefetchDepth(pages);
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * A snapshot of a BufferPool's counters, taken by
+ * {@link BufferPool#getStats}.  Counters only grow over the life of a
+ * pool, so the activity over an interval is the difference between two
+ * snapshots.
+ * <p>
+ * The counters are read one at a time while the pool keeps running, so a
+ * snapshot is not an atomic view: counters of related events may be off
+ * by the operations that were in flight.
+ */
+public class BufferPoolStats {
+
+    private final long budgetBytes;
+    private final long residentBytes;
+    private final int residentPages;
+    private final long hits;
+    private final long misses;
+    private final long compressedHits;
+    private final int compressedPages;
+    private final long compressedBytes;
+    private final long evictions;
+    private final long pagesRead;
+    private final long pagesWritten;
+    private final long backgroundWrites;
+    private final int pendingWrites;
+    private final long deadlocks;
+    private final long lockEscalations;
+    private final Map<Integer, Long> pagesReadByTable;
+    private final Map<Integer, Long> pagesWrittenByTable;
+    private final LatencyHistogram.Snapshot missLatency;
+    private final LatencyHistogram.Snapshot readLatency;
+    private final LatencyHistogram.Snapshot writeLatency;
+    private final LatencyHistogram.Snapshot lockWaits;
+
+    BufferPoolStats(long budgetBytes, long residentBytes, int residentPages, PoolMetrics m,
+            CompressedPageCache tier, long backgroundWrites, int pendingWrites, LockManager locks) {
+        this.budgetBytes = budgetBytes;
+        this.residentBytes = residentBytes;
+        this.residentPages = residentPages;
+        this.hits = m.hits.sum();
+        this.misses = m.misses.sum();
+        this.compressedHits = m.compressedHits.sum();
+        this.compressedPages = tier.size();
+        this.compressedBytes = tier.bytes();
+        this.evictions = m.evictions.sum();
+        this.pagesRead = m.pagesRead.sum();
+        this.pagesWritten = m.pagesWritten.sum();
+        this.backgroundWrites = backgroundWrites;
+        this.pendingWrites = pendingWrites;
+        this.deadlocks = locks.deadlocks.sum();
+        this.lockEscalations = locks.escalations.sum();
+        this.pagesReadByTable = Collections.unmodifiableMap(m.readsByTable());
+        this.pagesWrittenByTable = Collections.unmodifiableMap(m.writesByTable());
+        this.missLatency = m.missLatency.snapshot();
+        this.readLatency = m.readLatency.snapshot();
+        this.writeLatency = m.writeLatency.snapshot();
+        this.lockWaits = locks.waitLatency.snapshot();
+    }
+
+    /** @return the number of pages of the default size the pool can hold */
+    public int getCapacity() {
+        return (int) Math.min(Integer.MAX_VALUE, budgetBytes / BufferPool.getPageSize());
+    }
+
+    /** @return the pool's memory budget, in bytes of cached pages */
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** @return bytes of the pages cached when the snapshot was taken */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /** @return the number of pages cached when the snapshot was taken */
+    public int getResidentPages() {
+        return residentPages;
+    }
+
+    /** @return getPage calls answered from the pool */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return getPage calls that had to read their page */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return misses answered from the compressed second tier instead of disk */
+    public long getCompressedHits() {
+        return compressedHits;
+    }
+
+    /** @return pages held by the compressed second tier */
+    public int getCompressedPages() {
+        return compressedPages;
+    }
+
+    /** @return bytes of compressed pages held by the second tier */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /** @return hits as a fraction of getPage calls, or zero if there were none */
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /** @return pages evicted to make room for others */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** @return pages read from disk, including read-ahead */
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+    /** @return pages written to disk, by flushes, commits and the background writer */
+    public long getPagesWritten() {
+        return pagesWritten;
+    }
+
+    /** @return pages written by the background writer */
+    public long getBackgroundWrites() {
+        return backgroundWrites;
+    }
+
+    /** @return cached pages whose committed changes were not yet on disk */
+    public int getPendingWrites() {
+        return pendingWrites;
+    }
+
+    /** @return deadlocks broken by aborting a transaction */
+    public long getDeadlocks() {
+        return deadlocks;
+    }
+
+    /** @return times a transaction's page locks on a table were replaced by a table lock */
+    public long getLockEscalations() {
+        return lockEscalations;
+    }
+
+    /** @return pages read from disk, keyed by table id */
+    public Map<Integer, Long> getPagesReadByTable() {
+        return pagesReadByTable;
+    }
+
+    /** @return pages written to disk, keyed by table id */
+    public Map<Integer, Long> getPagesWrittenByTable() {
+        return pagesWrittenByTable;
+    }
+
+    /** @return latencies of getPage calls that missed */
+    public LatencyHistogram.Snapshot getMissLatency() {
+        return missLatency;
+    }
+
+    /** @return latencies of the DbFile.readPage calls made by the pool */
+    public LatencyHistogram.Snapshot getReadLatency() {
+        return readLatency;
+    }
+
+    /** @return latencies of the DbFile.writePage calls made by the pool */
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return writeLatency;
+    }
+
+    /** @return time spent waiting by lock requests that could not be granted at once */
+    public LatencyHistogram.Snapshot getLockWaits() {
+        return lockWaits;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("pages %d (%d/%d bytes), hits %d, misses %d (hit ratio %.3f), evictions %d%n",
+                residentPages, residentBytes, budgetBytes, hits, misses, getHitRatio(), evictions));
+        sb.append(String.format("compressed tier: %d pages in %d bytes, %d hits%n",
+                compressedPages, compressedBytes, compressedHits));
+        sb.append(String.format("read %d pages, wrote %d (%d in background, %d pending), deadlocks %d, lock escalations %d%n",
+                pagesRead, pagesWritten, backgroundWrites, pendingWrites, deadlocks, lockEscalations));
+        sb.append("miss latency: ").append(missLatency).append('\n');
+        sb.append("read latency: ").append(readLatency).append('\n');
+        sb.append("write latency: ").append(writeLatency).append('\n');
+        sb.append("lock waits: ").append(lockWaits);
+        return sb.toString();
+    }
+}
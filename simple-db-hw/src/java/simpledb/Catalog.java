@@ -18,12 +18,33 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
+    /** A table registered in the catalog. */
+    private static class Table {
+        final DbFile file;
+        final String name;
+        final String pkeyField;
+
+        Table(DbFile file, String name, String pkeyField) {
+            this.file = file;
+            this.name = name;
+            this.pkeyField = pkeyField;
+        }
+    }
+
+    private final ConcurrentHashMap<Integer, Table> tablesById;
+    private final ConcurrentHashMap<String, Integer> idsByName;
+    private final ConcurrentHashMap<String, PoolPartition> partitions;
+    private final ConcurrentHashMap<Integer, PoolPartition> partitionsByTable;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        // some code goes here
+        tablesById = new ConcurrentHashMap<Integer, Table>();
+        idsByName = new ConcurrentHashMap<String, Integer>();
+        partitions = new ConcurrentHashMap<String, PoolPartition>();
+        partitionsByTable = new ConcurrentHashMap<Integer, PoolPartition>();
     }
 
     /**
@@ -36,7 +57,18 @@ public class Catalog {
      * @param pkeyField the name of the primary key field
      */
     public void addTable(DbFile file, String name, String pkeyField) {
-        // some code goes here
+        if (name == null)
+            throw new IllegalArgumentException("table name may not be null");
+        synchronized (this) {
+            Table old = tablesById.get(file.getId());
+            if (old != null)
+                idsByName.remove(old.name, file.getId());
+            Integer oldId = idsByName.get(name);
+            if (oldId != null)
+                tablesById.remove(oldId);
+            tablesById.put(file.getId(), new Table(file, name, pkeyField));
+            idsByName.put(name, file.getId());
+        }
     }
 
     public void addTable(DbFile file, String name) {
@@ -59,8 +91,10 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        Integer id = name == null ? null : idsByName.get(name);
+        if (id == null)
+            throw new NoSuchElementException("no table named " + name);
+        return id;
     }
 
     /**
@@ -70,8 +104,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file.getTupleDesc();
     }
 
     /**
@@ -81,28 +114,80 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        return getTable(tableid).file;
     }
 
     public String getPrimaryKey(int tableid) {
-        // some code goes here
-        return null;
+        return getTable(tableid).pkeyField;
     }
 
     public Iterator<Integer> tableIdIterator() {
-        // some code goes here
-        return null;
+        return tablesById.keySet().iterator();
     }
 
     public String getTableName(int id) {
-        // some code goes here
-        return null;
+        return getTable(id).name;
     }
     
+    /**
+     * Defines a BufferPool partition, or changes the quotas of an existing
+     * one.  New quotas apply to the pool's next evictions.
+     *
+     * @param minBytes bytes of the pool the partition's pages keep
+     *   whatever other tables read
+     * @param maxBytes most bytes of the pool the partition's pages may
+     *   occupy
+     * @return the partition
+     * @see PoolPartition
+     */
+    public synchronized PoolPartition definePartition(String name, long minBytes, long maxBytes) {
+        PoolPartition p = partitions.get(name);
+        if (p == null) {
+            p = new PoolPartition(name, minBytes, maxBytes);
+            partitions.put(name, p);
+        } else {
+            p.setQuotas(minBytes, maxBytes);
+        }
+        return p;
+    }
+
+    /**
+     * Puts a table's pages in a BufferPool partition, or, if partition is
+     * null, back in the shared part of the pool.  Pages already cached
+     * stay where they were until they are evicted.
+     *
+     * @throws NoSuchElementException if the table or partition doesn't exist
+     */
+    public void setTablePartition(String tableName, String partition) throws NoSuchElementException {
+        int id = getTableId(tableName);
+        if (partition == null) {
+            partitionsByTable.remove(id);
+            return;
+        }
+        PoolPartition p = partitions.get(partition);
+        if (p == null)
+            throw new NoSuchElementException("no partition named " + partition);
+        partitionsByTable.put(id, p);
+    }
+
+    /** @return the partition of the specified table, or null if it has none */
+    public PoolPartition getPartition(int tableid) {
+        return partitionsByTable.get(tableid);
+    }
+
     /** Delete all tables from the catalog */
-    public void clear() {
-        // some code goes here
+    public synchronized void clear() {
+        tablesById.clear();
+        idsByName.clear();
+        partitions.clear();
+        partitionsByTable.clear();
+    }
+
+    private Table getTable(int tableid) throws NoSuchElementException {
+        Table t = tablesById.get(tableid);
+        if (t == null)
+            throw new NoSuchElementException("no table with id " + tableid);
+        return t;
     }
     
     /**
@@ -120,6 +205,19 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                // optional annotations after the fields choose compressed
+                // storage and the PAX page layout
+                boolean compressed = false, pax = false;
+                for (String a : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (a.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (a.equalsIgnoreCase("pax"))
+                        pax = true;
+                    else if (!a.isEmpty()) {
+                        System.out.println("Unknown annotation " + a);
+                        System.exit(0);
+                    }
+                }
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -131,6 +229,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -147,10 +247,28 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // tables with varchar columns are stored in slotted pages,
+                // unless they ask for PAX pages
+                File dat = new File(baseFolder+"/"+name + ".dat");
+                HeapFile.Layout layout = pax ? HeapFile.Layout.PAX
+                        : types.contains(Type.VARCHAR_TYPE) ? HeapFile.Layout.SLOTTED
+                        : HeapFile.Layout.ROW;
+                if (compressed && dat.length() > 0 && !CompressedHeapFile.mapFile(dat).exists()) {
+                    System.out.println("Table " + name + " is marked compressed but " + dat
+                            + " has no page map; convert it with CompressedHeapFile.compress");
+                    System.exit(0);
+                }
+                HeapFile tabHf = compressed ? new CompressedHeapFile(dat, t, 0, layout)
+                        : new HeapFile(dat, t, 0, layout);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
+            // redo commits the page writer had not written when the
+            // database last stopped
+            Database.getLogFile().recover();
+            // read back the pages the pool held when the database last
+            // ran, if warm restarts are turned on
+            WarmRestart.start(new File(baseFolder));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
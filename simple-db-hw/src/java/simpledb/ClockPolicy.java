@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * CLOCK (second chance) replacement.  Each resident frame occupies one slot
+ * of a fixed ring; a hit only sets the frame's reference bit, and the hand
+ * clears bits as it sweeps, proposing the first frame it finds unset.
+ * Hits take no lock at all, which makes this the policy of choice under
+ * many concurrent clients.  Admission, removal and the sweep share a read
+ * lock that only growing the ring takes exclusively.  The ring starts
+ * with a slot per page of the pool's capacity and doubles whenever it is
+ * full, which happens when tables with pages smaller than the default
+ * fit more frames into the pool's byte budget; it never shrinks.
+ *
+ * @Threadsafe
+ */
+class ClockPolicy implements ReplacementPolicy {
+
+    private volatile AtomicReferenceArray<BufferPool.Frame> ring;
+    private final ConcurrentLinkedQueue<Integer> freeSlots;
+    private final AtomicInteger hand = new AtomicInteger();
+    /** Write-locked while the ring is replaced by a larger one. */
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+    ClockPolicy(int numPages) {
+        this.ring = new AtomicReferenceArray<BufferPool.Frame>(numPages);
+        this.freeSlots = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < numPages; i++)
+            freeSlots.add(i);
+    }
+
+    public void admit(BufferPool.Frame f) {
+        while (true) {
+            int size;
+            resizeLock.readLock().lock();
+            try {
+                Integer slot = freeSlots.poll();
+                if (slot != null) {
+                    f.referenced = true;
+                    f.slot = slot;
+                    ring.set(slot, f);
+                    return;
+                }
+                size = ring.length();
+            } finally {
+                resizeLock.readLock().unlock();
+            }
+            setCapacity(Math.max(1, 2 * size));
+        }
+    }
+
+    public void access(BufferPool.Frame f) {
+        if (!f.referenced)
+            f.referenced = true;
+    }
+
+    public void remove(BufferPool.Frame f) {
+        resizeLock.readLock().lock();
+        try {
+            int slot = f.slot;
+            if (slot >= 0 && ring.compareAndSet(slot, f, null))
+                freeSlots.add(slot);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    public BufferPool.Frame nextVictim() {
+        resizeLock.readLock().lock();
+        try {
+            AtomicReferenceArray<BufferPool.Frame> r = ring;
+            int size = r.length();
+            // two full turns: the first may only clear reference bits
+            BufferPool.Frame last = null;
+            for (int n = 0; n < 2 * size; n++) {
+                int i = Math.floorMod(hand.getAndIncrement(), size);
+                BufferPool.Frame f = r.get(i);
+                if (f == null)
+                    continue;
+                if (!f.referenced)
+                    return f;
+                f.referenced = false;
+                last = f;
+            }
+            // every frame was hit again behind the hand; settle for the last one
+            return last;
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    public void setCapacity(int numPages) {
+        resizeLock.writeLock().lock();
+        try {
+            AtomicReferenceArray<BufferPool.Frame> old = ring;
+            if (numPages <= old.length())
+                return;
+            AtomicReferenceArray<BufferPool.Frame> grown = new AtomicReferenceArray<BufferPool.Frame>(numPages);
+            for (int i = 0; i < old.length(); i++)
+                grown.set(i, old.get(i));
+            ring = grown;
+            for (int i = old.length(); i < numPages; i++)
+                freeSlots.add(i);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A HeapFile that keeps its pages deflated on disk.  Pages are compressed
+ * as they are written and inflated as they are read, so the BufferPool and
+ * everything above it see ordinary HeapPages.  Heap pages are mostly empty
+ * slots, zero padding and fixed-width strings, and typically shrink to a
+ * fraction of their size.
+ * <p>
+ * Compressed pages differ in size, so they are not at fixed offsets.  A
+ * page-offset map, kept in a second file named after the data file with
+ * ".map" appended, gives each page's offset, its compressed length, and
+ * the room set aside for it.  A page is never rewritten in place: each
+ * write goes to fresh space, a free extent of the data file or its end,
+ * and the room the page had is only reused once the map that points away
+ * from it has been forced.  A crash therefore leaves the map pointing at
+ * either the old or the new image of each page, whole.  The free extents
+ * are the gaps between the rooms in the map, so they are found again
+ * when the map is loaded.  Pages that do not compress are stored as they
+ * are, and a length of zero stands for a page of zeros.
+ * <p>
+ * A data file with pages must have its map; a plain heap file is
+ * converted with {@link #compress}, not opened as a compressed one.
+ * <p>
+ * Being a subclass of HeapFile, its pages are always read through
+ * readPage, never straight into the BufferPool's off-heap frames or from
+ * its compressed tier.
+ *
+ * @see #compress
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** Bytes per map entry: a page's offset, length and room. */
+    private static final int ENTRY_BYTES = 16;
+    /** Pages compressed together when copying a file. */
+    private static final int COPY_BATCH = 64;
+
+    private final File map;
+
+    /** Number of pages in the map, or -1 until it is loaded. */
+    private volatile int count = -1;
+    /** The map; guarded by this. */
+    private long[] offsets;
+    private int[] lengths;
+    private int[] rooms;
+    /** End of the data file, where pages go that fit no free extent; guarded by this. */
+    private long end;
+    /** Unused extents of the data file, by offset, mapped to their length; guarded by this. */
+    private TreeMap<Long, Long> free;
+
+    /**
+     * Constructs a compressed heap file backed by the specified data file
+     * and the map file next to it.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, 0, false);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified data file
+     * and the map file next to it.
+     *
+     * @param pageSize bytes per page, or 0 for the BufferPool default
+     * @param slotted true to lay pages out as SlottedHeapPages
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize, boolean slotted) {
+        this(f, td, pageSize, slotted ? Layout.SLOTTED : Layout.ROW);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified data file
+     * and the map file next to it, whose pages are laid out as the given
+     * layout.
+     *
+     * @param pageSize bytes per page, or 0 for the BufferPool default
+     */
+    public CompressedHeapFile(File f, TupleDesc td, int pageSize, Layout layout) {
+        super(f, td, pageSize, layout);
+        this.map = mapFile(f);
+    }
+
+    /** @return the page-offset map file of a compressed heap file */
+    public static File mapFile(File f) {
+        return new File(f.getPath() + ".map");
+    }
+
+    /**
+     * Writes a compressed copy of an uncompressed heap file, replacing
+     * whatever dest and its map held.  The source is read straight from
+     * disk, so it need not be in the catalog, but it must not be changing.
+     *
+     * @return the copy, which is not added to the catalog
+     */
+    public static CompressedHeapFile compress(HeapFile src, File dest) throws IOException {
+        int pageSize = src.getPageSize();
+        // empty both files, and drop any zone map of an earlier file
+        new FileOutputStream(dest).close();
+        new FileOutputStream(mapFile(dest)).close();
+        ZoneMap.sidecar(dest).delete();
+        CompressedHeapFile out = new CompressedHeapFile(dest, src.getTupleDesc(), pageSize, src.getLayout());
+        int pages = (int) (src.getFile().length() / pageSize);
+        try (RandomAccessFile raf = new RandomAccessFile(src.getFile(), "r")) {
+            for (int first = 0; first < pages; first += COPY_BATCH) {
+                int n = Math.min(COPY_BATCH, pages - first);
+                int[] pageNos = new int[n];
+                byte[][] images = new byte[n][pageSize];
+                for (int i = 0; i < n; i++) {
+                    pageNos[i] = first + i;
+                    raf.readFully(images[i]);
+                }
+                out.writeImages(pageNos, images);
+            }
+        }
+        return out;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        int pgNo = pid.getPageNumber();
+        if (pid.getTableId() != getId() || pgNo < 0 || pgNo >= numPages())
+            throw new IllegalArgumentException("page " + pgNo + " does not exist in this file");
+        long off;
+        int len;
+        synchronized (this) {
+            off = offsets[pgNo];
+            len = lengths[pgNo];
+        }
+        int pageSize = getPageSize();
+        byte[] data = new byte[pageSize];
+        try {
+            if (len == pageSize) {
+                readFully(off, data);
+            } else if (len > 0) {
+                byte[] stored = new byte[len];
+                readFully(off, stored);
+                if (!PageCodec.inflate(stored, 0, len, data))
+                    throw new IOException("page " + pgNo + " is corrupt");
+            }
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pgNo, e);
+        }
+    }
+
+    private void readFully(long off, byte[] out) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
+            raf.seek(off);
+            raf.readFully(out);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePages(Collections.singletonList(page));
+    }
+
+    /**
+     * Compresses the pages, writes them to fresh space in the data file
+     * and forces it, then records where they went in the map and forces
+     * that, and only then frees the rooms they had.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        int[] pageNos = new int[pages.size()];
+        byte[][] images = new byte[pages.size()][];
+        for (int i = 0; i < pageNos.length; i++) {
+            pageNos[i] = pages.get(i).getId().getPageNumber();
+            images[i] = pages.get(i).getPageData();
+        }
+        writeImages(pageNos, images);
+    }
+
+    private synchronized void writeImages(int[] pageNos, byte[][] images) throws IOException {
+        load();
+        saveZoneMap();
+        int oldCount = count;
+        int newCount = oldCount;
+        for (int pgNo : pageNos)
+            newCount = Math.max(newCount, pgNo + 1);
+        grow(newCount);
+
+        // rooms the pages had, free once the map no longer points at them
+        List<long[]> released = new ArrayList<long[]>();
+        try (FileChannel ch = FileChannel.open(getFile().toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (int i = 0; i < pageNos.length; i++) {
+                int pgNo = pageNos[i];
+                byte[] stored = isZero(images[i]) ? new byte[0] : PageCodec.deflate(images[i]);
+                if (stored == null)
+                    stored = images[i];
+                if (rooms[pgNo] > 0)
+                    released.add(new long[] { offsets[pgNo], rooms[pgNo] });
+                offsets[pgNo] = allocate(stored.length);
+                rooms[pgNo] = stored.length;
+                lengths[pgNo] = stored.length;
+                ByteBuffer src = ByteBuffer.wrap(stored);
+                while (src.hasRemaining())
+                    ch.write(src, offsets[pgNo] + src.position());
+            }
+            ch.force(false);
+        }
+
+        // pages past the old end that were not written are empty
+        try (FileChannel ch = FileChannel.open(map.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (int pgNo = oldCount; pgNo < newCount; pgNo++)
+                writeEntry(ch, pgNo);
+            for (int pgNo : pageNos) {
+                if (pgNo < oldCount)
+                    writeEntry(ch, pgNo);
+            }
+            ch.force(false);
+        }
+        count = newCount;
+        for (long[] extent : released)
+            release(extent[0], extent[1]);
+    }
+
+    /**
+     * Finds len bytes of the data file for a page: the start of the first
+     * free extent that is long enough, or else the end of the file.
+     * Called holding this.
+     */
+    private long allocate(int len) {
+        if (len == 0)
+            return 0;
+        for (Map.Entry<Long, Long> e : free.entrySet()) {
+            long off = e.getKey();
+            long room = e.getValue();
+            if (room >= len) {
+                free.remove(off);
+                if (room > len)
+                    free.put(off + len, room - len);
+                return off;
+            }
+        }
+        long off = end;
+        end += len;
+        return off;
+    }
+
+    /** Adds an extent to the free ones, merging it with its neighbours.  Called holding this. */
+    private void release(long off, long len) {
+        Map.Entry<Long, Long> before = free.floorEntry(off);
+        if (before != null && before.getKey() + before.getValue() == off) {
+            free.remove(before.getKey());
+            off = before.getKey();
+            len += before.getValue();
+        }
+        Long after = free.remove(off + len);
+        if (after != null)
+            len += after;
+        free.put(off, len);
+    }
+
+    private void writeEntry(FileChannel ch, int pgNo) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        entry.putLong(offsets[pgNo]).putInt(lengths[pgNo]).putInt(rooms[pgNo]);
+        entry.flip();
+        while (entry.hasRemaining())
+            ch.write(entry, (long) pgNo * ENTRY_BYTES + entry.position());
+    }
+
+    private static boolean isZero(byte[] data) {
+        for (byte b : data) {
+            if (b != 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of pages in this file, as recorded in its map.
+     */
+    public int numPages() {
+        int n = count;
+        if (n >= 0)
+            return n;
+        synchronized (this) {
+            try {
+                load();
+            } catch (IOException e) {
+                throw new IllegalStateException("unable to read page map " + map, e);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Reads the map if that has not been done yet, and finds the free
+     * extents between the rooms it records.  Called holding this.
+     *
+     * @throws IOException if the data file has pages but there is no map
+     */
+    private void load() throws IOException {
+        if (count >= 0)
+            return;
+        if (!map.exists() && getFile().length() > 0)
+            throw new IOException(getFile() + " has no page map " + map
+                    + "; convert a plain heap file with CompressedHeapFile.compress");
+        int n = map.exists() ? (int) (map.length() / ENTRY_BYTES) : 0;
+        offsets = new long[Math.max(n, 16)];
+        lengths = new int[offsets.length];
+        rooms = new int[offsets.length];
+        end = getFile().length();
+        if (n > 0) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(map)))) {
+                for (int i = 0; i < n; i++) {
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                    rooms[i] = in.readInt();
+                    end = Math.max(end, offsets[i] + rooms[i]);
+                }
+            }
+        }
+        free = new TreeMap<Long, Long>();
+        TreeMap<Long, Integer> used = new TreeMap<Long, Integer>();
+        for (int i = 0; i < n; i++) {
+            if (rooms[i] > 0)
+                used.put(offsets[i], rooms[i]);
+        }
+        long next = 0;
+        for (Map.Entry<Long, Integer> e : used.entrySet()) {
+            if (e.getKey() > next)
+                free.put(next, e.getKey() - next);
+            next = Math.max(next, e.getKey() + e.getValue());
+        }
+        // anything after the last room was written by a write whose map never was
+        if (end > next)
+            free.put(next, end - next);
+        count = n;
+    }
+
+    /** Makes room in the map for n pages.  Called holding this. */
+    private void grow(int n) {
+        if (n <= offsets.length)
+            return;
+        int size = Math.max(n, offsets.length * 2);
+        offsets = Arrays.copyOf(offsets, size);
+        lengths = Arrays.copyOf(lengths, size);
+        rooms = Arrays.copyOf(rooms, size);
+    }
+}
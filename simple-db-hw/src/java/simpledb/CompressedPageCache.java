@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A second tier behind the BufferPool that keeps clean pages evicted from
+ * the pool in memory, deflated.  A miss in the pool looks here before it
+ * reads from disk; a page found here is taken out, inflated, and cached
+ * in the pool again.
+ * <p>
+ * Heap pages are mostly empty slots and zero padding, so they typically
+ * deflate to a fraction of their size, and the tier holds several times
+ * as many pages as the same memory would in the pool.  Pages that do not
+ * compress are kept as they are.
+ * <p>
+ * The tier is bounded in bytes of compressed data and drops its least
+ * recently added pages when full.  Its size is set with the system
+ * property simpledb.BufferPool.compressedCacheBytes, or at runtime
+ * through {@link BufferPool#setCompressedCacheBytes}; zero, the default,
+ * turns it off.
+ *
+ * @Threadsafe
+ */
+class CompressedPageCache {
+
+    /** System property giving the size of new pools' tiers, in bytes. */
+    static final String SIZE_PROPERTY = "simpledb.BufferPool.compressedCacheBytes";
+
+    /** A page's bytes, deflated unless that did not make them smaller. */
+    private static final class Entry {
+        final byte[] bytes;
+        final boolean deflated;
+
+        Entry(byte[] bytes, boolean deflated) {
+            this.bytes = bytes;
+            this.deflated = deflated;
+        }
+    }
+
+    /** Pages in the order they were added; guarded by this. */
+    private final LinkedHashMap<PageId, Entry> pages = new LinkedHashMap<PageId, Entry>();
+    /** Bytes of the entries in pages; guarded by this. */
+    private long bytes;
+    private volatile long capacity;
+
+    CompressedPageCache(long capacity) {
+        setCapacity(capacity);
+    }
+
+    boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    void setCapacity(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative");
+        this.capacity = capacity;
+        synchronized (this) {
+            trim();
+        }
+    }
+
+    /** Adds the bytes of a clean page that is leaving the pool. */
+    void put(PageId pid, byte[] data) {
+        if (!isEnabled())
+            return;
+        Entry e = deflate(data);
+        synchronized (this) {
+            Entry old = pages.put(pid, e);
+            if (old != null)
+                bytes -= old.bytes.length;
+            bytes += e.bytes.length;
+            trim();
+        }
+    }
+
+    /**
+     * Takes a page out of the tier.
+     *
+     * @param size the page's size in bytes
+     * @return the page's bytes, or null if the tier does not hold it
+     */
+    byte[] take(PageId pid, int size) {
+        Entry e;
+        synchronized (this) {
+            e = pages.remove(pid);
+            if (e == null)
+                return null;
+            bytes -= e.bytes.length;
+        }
+        if (!e.deflated)
+            return e.bytes;
+        byte[] out = new byte[size];
+        return PageCodec.inflate(e.bytes, 0, e.bytes.length, out) ? out : null;
+    }
+
+    /** Forgets a page, whose copy here may no longer match the disk. */
+    synchronized void remove(PageId pid) {
+        Entry e = pages.remove(pid);
+        if (e != null)
+            bytes -= e.bytes.length;
+    }
+
+    synchronized int size() {
+        return pages.size();
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    private static Entry deflate(byte[] data) {
+        byte[] deflated = PageCodec.deflate(data);
+        return deflated == null ? new Entry(data, false) : new Entry(deflated, true);
+    }
+
+    /** Drops the oldest pages while over capacity.  Called holding this. */
+    private void trim() {
+        for (Iterator<Map.Entry<PageId, Entry>> it = pages.entrySet().iterator();
+                bytes > capacity && it.hasNext(); ) {
+            bytes -= it.next().getValue().bytes.length;
+            it.remove();
+        }
+    }
+}
@@ -32,6 +32,7 @@ public class Database {
             System.exit(1);
         }
         _logfile = tmp;
+        BufferPoolMonitor.register();
         // startControllerThread();
     }
 
@@ -52,7 +53,8 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it.  To change the size of a running pool without emptying it,
+     * use {@link BufferPool#resize}.
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
@@ -28,6 +28,31 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Pushes several pages of this file to disk and makes sure they are
+     * there, on stable storage, when this returns.  Files that can should
+     * override this to write neighbouring pages together and sync once;
+     * the default writes the pages one at a time with writePage.
+     *
+     * @param pages the pages to write, in any order
+     * @throws IOException if a write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Returns the size in bytes of this file's pages, which is what each
+     * of them costs while it is cached in the BufferPool.  Files that do
+     * not choose a size use the BufferPool default.
+     *
+     * @see BufferPool#getPageSize()
+     */
+    public default int getPageSize() {
+        return BufferPool.getPageSize();
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
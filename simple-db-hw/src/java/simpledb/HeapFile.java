@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -9,12 +12,50 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A table with variable-length columns can instead be stored in
+ * {@link SlottedHeapPage}s, and a table read a column at a time in
+ * {@link PaxHeapPage}s; the {@link Layout} is chosen when the file is
+ * constructed.  Every kind of page is a HeapPage, so the rest of the
+ * database does not need to know which it is reading.
+ * <p>
+ * A scan given a Predicate consults the file's {@link ZoneMap}, the range
+ * of values each page holds, and does not fetch pages whose range excludes
+ * the operand, though it still locks them.  The map is read from a
+ * sidecar file when a predicate scan first needs it, or built from the
+ * pages in the BufferPool if the sidecar is out of date; after that,
+ * inserts widen it, and it is saved before each batch of pages is
+ * written to the file.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** The ways a HeapFile can lay out its pages. */
+    public enum Layout {
+        /** Fixed-size tuples side by side, in HeapPages. */
+        ROW,
+        /** Variable-size tuples behind a slot directory, in SlottedHeapPages. */
+        SLOTTED,
+        /** Fixed-size tuples stored a column at a time, in PaxHeapPages. */
+        PAX
+    }
+
+    /** Most pages written by one gathering write; below any system's IOV_MAX. */
+    private static final int MAX_GATHER = 64;
+
+    private final File f;
+    private final TupleDesc td;
+    /** Bytes per page, or 0 to follow the BufferPool default. */
+    private final int pageSize;
+    private final Layout layout;
+
+    /** Page ranges, or null until a predicate scan needs them; guarded by this. */
+    private ZoneMap zones;
+    /** Inserts made while zones was null, which its sidecar may lack; guarded by this. */
+    private long untracked;
+
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -23,7 +64,80 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        // some code goes here
+        this(f, td, 0);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages
+     * are pageSize bytes rather than the BufferPool default.  Large pages
+     * suit tables that are mostly scanned, small ones tables that are
+     * mostly read a tuple at a time.
+     *
+     * @param pageSize bytes per page, or 0 for the BufferPool default
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize) {
+        this(f, td, pageSize, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * SlottedHeapPages if slotted is true.  Slotted pages store VARCHAR
+     * fields in only as many bytes as they need, so tables of short
+     * strings fit many more tuples on a page.
+     *
+     * @param pageSize bytes per page, or 0 for the BufferPool default
+     * @param slotted true to lay pages out as SlottedHeapPages
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, boolean slotted) {
+        this(f, td, pageSize, slotted ? Layout.SLOTTED : Layout.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * laid out as the given layout.
+     *
+     * @param pageSize bytes per page, or 0 for the BufferPool default
+     */
+    public HeapFile(File f, TupleDesc td, int pageSize, Layout layout) {
+        if (pageSize < 0)
+            throw new IllegalArgumentException("page size must not be negative");
+        if (layout == Layout.SLOTTED && pageSize > SlottedHeapPage.MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("slotted pages are at most "
+                    + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+        this.f = f;
+        this.td = td;
+        this.pageSize = pageSize;
+        this.layout = layout;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+        return pageSize > 0 ? pageSize : BufferPool.getPageSize();
+    }
+
+    /** @return true if this file's pages are SlottedHeapPages */
+    public boolean isSlotted() {
+        return layout == Layout.SLOTTED;
+    }
+
+    /** @return the layout of this file's pages */
+    public Layout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns a page of this file's layout that is a view over the given
+     * page-sized buffer.
+     */
+    HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+        switch (layout) {
+        case SLOTTED:
+            return new SlottedHeapPage(pid, data);
+        case PAX:
+            return new PaxHeapPage(pid, data);
+        default:
+            return new HeapPage(pid, data);
+        }
     }
 
     /**
@@ -32,8 +146,7 @@ public class HeapFile implements DbFile {
      * @return the File backing this HeapFile on disk.
      */
     public File getFile() {
-        // some code goes here
-        return null;
+        return f;
     }
 
     /**
@@ -46,8 +159,7 @@ public class HeapFile implements DbFile {
      * @return an ID uniquely identifying this HeapFile.
      */
     public int getId() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return f.getAbsoluteFile().hashCode();
     }
 
     /**
@@ -56,50 +168,365 @@ public class HeapFile implements DbFile {
      * @return TupleDesc of this DbFile.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        throw new UnsupportedOperationException("implement this");
+        return td;
     }
 
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        // some code goes here
-        return null;
+        if (pid.getTableId() != getId() || pid.getPageNumber() < 0
+                || pid.getPageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.getPageNumber()
+                    + " does not exist in this file");
+        int pageSize = getPageSize();
+        byte[] data = new byte[pageSize];
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            raf.seek((long) pid.getPageNumber() * pageSize);
+            raf.readFully(data);
+            return newPage((HeapPageId) pid, ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber(), e);
+        }
+    }
+
+    /**
+     * Reads the specified page from disk straight into a BufferPool frame,
+     * returning a HeapPage that is a view over that frame.
+     *
+     * @param frame a cleared, page-sized buffer owned by the caller
+     * @throws IllegalArgumentException if the page does not exist in this file
+     */
+    HeapPage readPage(PageId pid, ByteBuffer frame) {
+        if (pid.getTableId() != getId() || pid.getPageNumber() < 0
+                || pid.getPageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.getPageNumber()
+                    + " does not exist in this file");
+        long pos = (long) pid.getPageNumber() * getPageSize();
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer dst = frame.duplicate();
+            dst.clear();
+            while (dst.hasRemaining()) {
+                if (ch.read(dst, pos + dst.position()) < 0)
+                    throw new EOFException("short read of page " + pid.getPageNumber());
+            }
+            return newPage((HeapPageId) pid, frame);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("unable to read page " + pid.getPageNumber(), e);
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        // some code goes here
-        // not necessary for lab1
+        long pos = (long) page.getId().getPageNumber() * getPageSize();
+        ByteBuffer src = pageBuffer(page);
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            while (src.hasRemaining())
+                ch.write(src, pos + src.position());
+        }
+    }
+
+    /**
+     * Writes the pages in page order through one channel, each run of
+     * consecutive pages with a single gathering write, and then forces the
+     * file to disk once.  The zone map is saved first.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        saveZoneMap();
+        List<Page> sorted = new ArrayList<Page>(pages);
+        sorted.sort(Comparator.comparingInt(p -> p.getId().getPageNumber()));
+        int pageSize = getPageSize();
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            int i = 0;
+            while (i < sorted.size()) {
+                int first = sorted.get(i).getId().getPageNumber();
+                int j = i + 1;
+                while (j < sorted.size() && j - i < MAX_GATHER
+                        && sorted.get(j).getId().getPageNumber() == first + (j - i))
+                    j++;
+                ByteBuffer[] srcs = new ByteBuffer[j - i];
+                long remaining = 0;
+                for (int k = 0; k < srcs.length; k++) {
+                    srcs[k] = pageBuffer(sorted.get(i + k));
+                    remaining += srcs[k].remaining();
+                }
+                ch.position((long) first * pageSize);
+                while (remaining > 0)
+                    remaining -= ch.write(srcs);
+                i = j;
+            }
+            ch.force(false);
+        }
+    }
+
+    /** Returns the bytes to write for a page; HeapPages are written straight from the buffer they view. */
+    private static ByteBuffer pageBuffer(Page page) {
+        return page instanceof HeapPage
+                ? ((HeapPage) page).pageBuffer()
+                : ByteBuffer.wrap(page.getPageData());
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        // some code goes here
-        return 0;
+        return (int) (f.length() / getPageSize());
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple descriptor does not match this table");
+        BufferPool pool = Database.getBufferPool();
+        ArrayList<Page> modified = new ArrayList<Page>();
+        for (int pgNo = 0; pgNo < numPages(); pgNo++) {
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.hasRoomFor(t)) {
+                page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                page.insertTuple(t);
+                noteInsert(pgNo, t);
+                modified.add(page);
+                return modified;
+            }
+            // a full page was only looked at; do not keep it locked
+            if (!held)
+                pool.releasePage(tid, pid);
+        }
+        // every page is full; append an empty one and fill it through the pool
+        HeapPageId pid;
+        synchronized (this) {
+            pid = new HeapPageId(getId(), numPages());
+            writePage(newPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData(getPageSize()))));
+        }
+        HeapPage page = (HeapPage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        noteInsert(pid.getPageNumber(), t);
+        modified.add(page);
+        return modified;
+    }
+
+    /**
+     * Widens the zone map for an insert, or notes that it has missed one,
+     * marking the sidecar out of date at the first.
+     */
+    private synchronized void noteInsert(int pgNo, Tuple t) throws IOException {
+        if (zones != null) {
+            zones.add(pgNo, t);
+            return;
+        }
+        if (untracked == 0)
+            ZoneMap.invalidate(f);
+        untracked++;
+    }
+
+    /**
+     * Saves the zone map, if there is one, before pages are written.
+     * The sidecar is only a hint, so failing to save it is not an error;
+     * the map is rebuilt when it is next loaded.
+     */
+    void saveZoneMap() {
+        ZoneMap z;
+        synchronized (this) {
+            z = zones;
+        }
+        if (z == null)
+            return;
+        try {
+            z.save(f);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the zone map, loading it from its sidecar, or building it by
+     * reading every page through the BufferPool if the sidecar is out of
+     * date or this file has had inserts it did not see.
+     * <p>
+     * The build is no part of the scan's transaction: its pins belong to a
+     * transaction of its own, completed as soon as it is done, and it
+     * takes no locks, so the scan's transaction neither keeps every page
+     * locked nor waits on locks for pages it will skip.  Without locks it
+     * may see uncommitted tuples, which only widen the ranges, and an
+     * insert it misses is caught by the untracked count.
+     *
+     * @return the map, or null if other transactions inserted tuples while
+     *   it was being built, so that it cannot be trusted
+     */
+    ZoneMap zoneMap(AccessStrategy strategy)
+            throws DbException, TransactionAbortedException {
+        long seen;
+        synchronized (this) {
+            if (zones != null)
+                return zones;
+            if (untracked == 0) {
+                try {
+                    zones = ZoneMap.load(f, td);
+                } catch (IOException e) {
+                    zones = null;
+                }
+                if (zones != null)
+                    return zones;
+            }
+            seen = untracked;
+        }
+        // read pages without holding this, which inserts need to proceed
+        ZoneMap built = new ZoneMap(td);
+        BufferPool pool = Database.getBufferPool();
+        TransactionId builder = new TransactionId();
+        try {
+            for (int pgNo = 0; pgNo < numPages(); pgNo++) {
+                built.cover(pgNo + 1);
+                try (PinnedPage pinned = pool.pinUnlocked(builder,
+                        new HeapPageId(getId(), pgNo), strategy)) {
+                    Iterator<Tuple> it = ((HeapPage) pinned.getPage()).iterator();
+                    while (it.hasNext())
+                        built.add(pgNo, it.next());
+                }
+            }
+        } finally {
+            try {
+                pool.transactionComplete(builder);
+            } catch (IOException e) {
+                // it wrote nothing
+            }
+        }
+        ZoneMap result;
+        synchronized (this) {
+            if (zones == null && untracked == seen)
+                zones = built;
+            result = zones;
+        }
+        if (result == built)
+            saveZoneMap();
+        return result;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-        return null;
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not a member of this table");
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                rid.getPageId(), Permissions.READ_WRITE);
+        page.deleteTuple(t);
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        // some code goes here
-        return null;
+        return new HeapFileIterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file that
+     * fetches pages through the given BufferPool access strategy.
+     *
+     * @param strategy the access strategy, or null for normal caching
+     * @see BufferPool#scanStrategy
+     */
+    public DbFileIterator iterator(TransactionId tid, AccessStrategy strategy) {
+        return new HeapFileIterator(tid, strategy, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this file that satisfy
+     * a predicate.  Pages that the zone map shows cannot hold a match are
+     * skipped without being fetched.
+     *
+     * @param strategy the access strategy, or null for normal caching
+     * @param p the predicate, or null for every tuple
+     */
+    public DbFileIterator iterator(TransactionId tid, AccessStrategy strategy, Predicate p) {
+        return new HeapFileIterator(tid, strategy, p);
+    }
+
+    /**
+     * Iterates over the tuples of this file a page at a time, fetching each
+     * page through the BufferPool.  The page being iterated over is pinned,
+     * so that its tuples are read in place until the iterator moves on.
+     * With a predicate, pages the zone map rules out are passed over.
+     */
+    private class HeapFileIterator extends AbstractDbFileIterator {
+
+        private final TransactionId tid;
+        private final AccessStrategy strategy;
+        private final Predicate predicate;
+        private ZoneMap zones;
+        private int pgNo;
+        private Iterator<Tuple> it;
+        private PinnedPage pinned;
+
+        HeapFileIterator(TransactionId tid, AccessStrategy strategy, Predicate predicate) {
+            this.tid = tid;
+            this.strategy = strategy;
+            this.predicate = predicate;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (predicate != null)
+                zones = zoneMap(strategy);
+            pgNo = 0;
+            it = pageIterator(pgNo);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            unpin();
+            it = null;
+        }
+
+        private void unpin() {
+            if (pinned != null) {
+                pinned.close();
+                pinned = null;
+            }
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (it == null)
+                return null;
+            while (!it.hasNext()) {
+                if (++pgNo >= numPages()) {
+                    unpin();
+                    return null;
+                }
+                it = pageIterator(pgNo);
+            }
+            return it.next();
+        }
+
+        private Iterator<Tuple> pageIterator(int pgNo)
+                throws DbException, TransactionAbortedException {
+            unpin();
+            if (pgNo >= numPages())
+                return Collections.<Tuple>emptyList().iterator();
+            HeapPageId pid = new HeapPageId(getId(), pgNo);
+            BufferPool pool = Database.getBufferPool();
+            if (zones != null) {
+                // lock before asking the map, which an insert widens while
+                // it holds the page, and keep the lock on a skipped page
+                pool.lockPage(tid, pid, Permissions.READ_ONLY);
+                if (!zones.mayMatch(pgNo, predicate))
+                    return Collections.<Tuple>emptyList().iterator();
+            }
+            pinned = pool.pinPage(tid, pid, Permissions.READ_ONLY, strategy);
+            HeapPage page = (HeapPage) pinned.getPage();
+            return predicate == null ? page.iterator() : page.iterator(predicate);
+        }
     }
 
 }
@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -102,9 +104,10 @@ public class HeapFileEncoder {
     int nheaderbytes = (nrecords / 8);
     if (nheaderbytes * 8 < nrecords)
         nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
 
     BufferedReader br = new BufferedReader(new FileReader(inFile));
+    // the zone map of an earlier file of this name does not describe this one
+    ZoneMap.sidecar(outFile).delete();
     FileOutputStream os = new FileOutputStream(outFile);
 
     // our numbers probably won't be much larger than 1024 digits
@@ -115,10 +118,11 @@ public class HeapFileEncoder {
     int npages = 0;
     int fieldNo = 0;
 
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+    // each page is built in place in one reused buffer, records first,
+    // then the header in front of them
+    byte[] page = new byte[npagebytes];
+    ByteBuffer pageBuf = ByteBuffer.wrap(page);
+    pageBuf.position(nheaderbytes);
 
     boolean done = false;
     boolean first = true;
@@ -140,22 +144,14 @@ public class HeapFileEncoder {
             String s = new String(buf, 0, curpos);
             if (typeAr[fieldNo] == Type.INT_TYPE) {
                 try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
+                    pageBuf.putInt(Integer.parseInt(s.trim()));
                 } catch (NumberFormatException e) {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+            else   if (typeAr[fieldNo] == Type.STRING_TYPE
+                    || typeAr[fieldNo] == Type.VARCHAR_TYPE) {
+                StringField.write(pageBuf, s.trim(), Type.STRING_LEN);
             }
             curpos = 0;
             if (c == '\n')
@@ -183,38 +179,19 @@ public class HeapFileEncoder {
         if (recordcount >= nrecords
             || done && recordcount > 0
             || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
+            // slots fill from the front, so the header is whole bytes of
+            // ones, then one partial byte, then zeros
+            int full = recordcount / 8;
+            Arrays.fill(page, 0, full, (byte) 0xff);
+            Arrays.fill(page, full, nheaderbytes, (byte) 0);
+            if (recordcount % 8 > 0)
+                page[full] = (byte) ((1 << (recordcount % 8)) - 1);
             
             // pad the rest of the page with zeroes
+            Arrays.fill(page, pageBuf.position(), npagebytes, (byte) 0);
             
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
+            os.write(page);
+            pageBuf.position(nheaderbytes);
             
             recordcount = 0;
             npages++;
@@ -223,4 +200,109 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+   /** Convert the specified input text file into a binary page file
+    * whose pages are laid out as SlottedHeapPages, as read by a HeapFile
+    * constructed as slotted. <br>
+    * The input is in the same format as for convert, with INT, STRING
+    * and VARCHAR fields; each page holds as many tuples as fit in it.
+    *
+    * @see SlottedHeapPage
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened or a
+    *   tuple does not fit on an empty page
+    */
+  public static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    if (npagebytes > SlottedHeapPage.MAX_PAGE_SIZE)
+        throw new IOException("slotted pages are at most " + SlottedHeapPage.MAX_PAGE_SIZE + " bytes");
+    TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+    byte[] page = new byte[npagebytes];
+    ByteBuffer pageBuf = ByteBuffer.wrap(page);
+    int npages = 0;
+    boolean pending = false;
+
+    BufferedReader br = new BufferedReader(new FileReader(inFile));
+    ZoneMap.sidecar(outFile).delete();
+    FileOutputStream os = new FileOutputStream(outFile);
+    try {
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            String[] vals = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < numFields; i++) {
+                    String s = vals[i].trim();
+                    if (typeAr[i] == Type.INT_TYPE)
+                        t.setField(i, new IntField(Integer.parseInt(s)));
+                    else if (typeAr[i] == Type.VARCHAR_TYPE)
+                        t.setField(i, new VarcharField(s));
+                    else
+                        t.setField(i, new StringField(s, Type.STRING_LEN));
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                System.out.println ("BAD LINE : " + line);
+                continue;
+            }
+            if (SlottedHeapPage.insert(pageBuf, npagebytes, td, t) < 0) {
+                // the page is full; write it and start the next
+                os.write(page);
+                npages++;
+                Arrays.fill(page, (byte) 0);
+                if (SlottedHeapPage.insert(pageBuf, npagebytes, td, t) < 0)
+                    throw new IOException("tuple does not fit on a page: " + line);
+            }
+            pending = true;
+        }
+        // an empty file still gets one empty page
+        if (pending || npages == 0)
+            os.write(page);
+    } finally {
+        br.close();
+        os.close();
+    }
+  }
+   /** Convert the specified input text file into a binary page file
+    * whose pages are laid out as PaxHeapPages, as read by a HeapFile
+    * constructed with the PAX layout. <br>
+    * The input is in the same format as for convert, and each page holds
+    * the same tuples it would there; the pages are written by convert
+    * and then rearranged a column at a time.
+    *
+    * @see PaxHeapPage
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param npagebytes The number of bytes per page in the output file
+    * @param numFields the number of fields in each input line/output tuple
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convertPax(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+    File rows = File.createTempFile("tempTable", ".dat");
+    rows.deleteOnExit();
+    try {
+        convert(inFile, rows, npagebytes, numFields, typeAr, fieldSeparator);
+        TupleDesc td = new TupleDesc(Arrays.copyOf(typeAr, numFields));
+        byte[] page = new byte[npagebytes];
+        byte[] pax = new byte[npagebytes];
+        ZoneMap.sidecar(outFile).delete();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rows)));
+             OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile))) {
+            for (long n = rows.length() / npagebytes; n > 0; n--) {
+                in.readFully(page);
+                PaxHeapPage.fromRows(page, pax, td);
+                os.write(pax);
+            }
+        }
+    } finally {
+        rows.delete();
+    }
+  }
 }
@@ -1,11 +1,31 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.locks.StampedLock;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A HeapPage is a view over the raw bytes of its page: header bits and
+ * tuples are decoded from those bytes when they are asked for.  The bytes
+ * are either a heap array or, when the BufferPool keeps its frames off the
+ * heap, a slice of its frame arena.
+ * <p>
+ * Fields sit at fixed offsets, so {@link #getField} can decode a single
+ * field of a slot without building its tuple, which lets a scan test a
+ * predicate on the rows it will discard without allocating them.
+ * <p>
+ * The header is read 64 slots at a time, as little-endian long words, so
+ * counting tuples and finding the next used or free slot take a bit
+ * count or a trailing-zero count per word rather than a test per slot.
+ * <p>
+ * Every tuple takes td.getSize() bytes here.  {@link SlottedHeapPage}
+ * lays the same bytes out with a slot directory instead, for tables with
+ * variable-length columns, and {@link PaxHeapPage} keeps the same slots
+ * but stores each column's values together.
  *
  * @see HeapFile
  * @see BufferPool
@@ -15,60 +35,75 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
+    /** Bytes in this page, as declared by its file. */
+    final int pageSize;
+    final int headerSize;
     final int numSlots;
 
-    byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    /**
+     * The bytes of this page, positioned at zero.  If they live in a
+     * BufferPool frame, {@link #detach} swaps them for a heap copy before
+     * the frame is reused.
+     */
+    volatile ByteBuffer data;
+    /**
+     * Write-locked by detach and by changes to the page; readers validate
+     * optimistically against it.
+     */
+    final StampedLock frameLock = new StampedLock();
+
+    /**
+     * The bytes of this page as of the last setBeforeImage, copied by the
+     * first change since then, or null if there has been none and the
+     * page is its own before image.  Guarded by frameLock; never changed
+     * in place once set.
+     */
+    private byte[] oldData;
+
+    private volatile TransactionId dirtier;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.getPageSize()*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is that of the table's file, {@link DbFile#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#getPageSize()
+     * @see DbFile#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage that is a view over the given page-sized buffer,
+     * without copying it.  The buffer must not be modified by anyone else
+     * while the page is in use.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.pageSize = Database.getCatalog().getDatabaseFile(id.getTableId()).getPageSize();
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+        this.headerSize = getHeaderSize();
+        if (data.capacity() < pageSize)
+            throw new EOFException("page data is shorter than a page");
+        this.data = data;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        // some code goes here
-        return 0;
-
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -76,22 +111,23 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        
-        // some code goes here
-        return 0;
-                 
+        return (numSlots + 7) / 8;
     }
     
     /** Return a view of this page before it was modified
-        -- used by recovery */
+        -- used by recovery.  The view is read-only. */
     public HeapPage getBeforeImage(){
+        byte[] before;
+        long stamp = frameLock.readLock();
         try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
+            before = oldData;
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+        try {
+            // an unchanged page is its own before image, as of now
+            ByteBuffer buf = before != null ? ByteBuffer.wrap(before) : ByteBuffer.wrap(getPageData());
+            return viewOf(buf.asReadOnlyBuffer());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -100,10 +136,34 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of this page's kind and id that is a view over buf */
+    HeapPage viewOf(ByteBuffer buf) throws IOException {
+        return new HeapPage(pid, buf);
+    }
+
+    /**
+     * Makes the page as it is now its before image.  This costs nothing:
+     * the bytes are only copied if and when the page next changes.
+     */
     public void setBeforeImage() {
-        synchronized(oldDataLock)
-        {
-        oldData = getPageData().clone();
+        long stamp = frameLock.writeLock();
+        try {
+            oldData = null;
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Keeps a copy of the bytes as they were before the first change
+     * since setBeforeImage.  Called holding the write lock, before
+     * changing anything.
+     */
+    void captureBeforeImage() {
+        if (oldData == null) {
+            byte[] copy = new byte[pageSize];
+            copyTo(data, copy);
+            oldData = copy;
         }
     }
 
@@ -111,44 +171,142 @@ public class HeapPage implements Page {
      * @return the PageId associated with this page.
      */
     public HeapPageId getId() {
-    // some code goes here
-    throw new UnsupportedOperationException("implement this");
+        return pid;
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decodes the tuple in a used slot.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        long stamp = frameLock.tryOptimisticRead();
+        Tuple t = null;
+        try {
+            t = decodeTuple(data, slotId);
+        } catch (RuntimeException e) {
+            // garbage from a frame detached underneath us; retry below
+            if (frameLock.validate(stamp))
+                throw e;
+        }
+        if (frameLock.validate(stamp))
+            return t;
+        stamp = frameLock.readLock();
+        try {
+            return decodeTuple(data, slotId);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Decodes one field of the tuple in a slot, without decoding the rest
+     * of the tuple.
+     *
+     * @param slotId the slot, which must be in use
+     * @param i the index of the field in this page's TupleDesc
+     * @throws NoSuchElementException if the slot is empty or either index
+     *   is out of range
+     */
+    public Field getField(int slotId, int i) throws NoSuchElementException {
+        int offset = fieldPosition(slotId, i);
+        Type type = td.getFieldType(i);
+        long stamp = frameLock.tryOptimisticRead();
+        Field f = null;
+        try {
+            f = decodeField(data, slotId, offset, type);
+        } catch (RuntimeException e) {
+            // garbage from a frame detached underneath us; retry below
+            if (frameLock.validate(stamp))
+                throw e;
+        }
+        if (frameLock.validate(stamp))
+            return f;
+        stamp = frameLock.readLock();
+        try {
+            return decodeField(data, slotId, offset, type);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    private Field decodeField(ByteBuffer buf, int slotId, int offset, Type type)
+            throws NoSuchElementException {
+        if (!isSlotUsedIn(buf, slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        ByteBuffer in = buf.duplicate();
+        in.position(offset);
+        try {
+            return type.parse(in);
+        } catch (java.text.ParseException e) {
+            throw parseError(e);
         }
+    }
+
+    /**
+     * Returns the exception for bytes that do not parse.  Nothing is
+     * printed, since an optimistic read of a frame being reused parses
+     * garbage and retries; a read that was valid throws it with the cause.
+     */
+    static NoSuchElementException parseError(java.text.ParseException e) {
+        NoSuchElementException ex = new NoSuchElementException("parsing error!");
+        ex.initCause(e);
+        return ex;
+    }
+
+    /**
+     * Returns the position in the page of field i of a slot.  Here the
+     * fields of a tuple are side by side, and tuples follow the header one
+     * after another.
+     */
+    int fieldPosition(int slotId, int i) {
+        return headerSize + slotId * td.getSize() + td.getFieldOffset(i);
+    }
 
-        // read fields in the tuple
+    private Tuple decodeTuple(ByteBuffer buf, int slotId) throws NoSuchElementException {
+        ByteBuffer in = buf.duplicate();
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                in.position(fieldPosition(slotId, j));
+                Field f = td.getFieldType(j).parse(in);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            throw parseError(e);
         }
-
         return t;
     }
 
+    /**
+     * Copies this page's bytes to the heap, so that the BufferPool frame
+     * they live in can be reused while others still hold this page.
+     */
+    void detach() {
+        long stamp = frameLock.writeLock();
+        try {
+            ByteBuffer src = data.duplicate();
+            src.clear();
+            ByteBuffer copy = ByteBuffer.allocate(src.capacity());
+            copy.put(src);
+            copy.clear();
+            data = copy;
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return a read-only buffer over the bytes of this page, positioned
+     *   at zero, for writing the page out without copying it
+     */
+    ByteBuffer pageBuffer() {
+        ByteBuffer buf = data.asReadOnlyBuffer();
+        buf.clear();
+        buf.limit(pageSize);
+        return buf;
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -161,64 +319,24 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
+        byte[] out = new byte[pageSize];
+        long stamp = frameLock.tryOptimisticRead();
+        copyTo(data, out);
+        if (frameLock.validate(stamp))
+            return out;
+        stamp = frameLock.readLock();
         try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+            copyTo(data, out);
+        } finally {
+            frameLock.unlockRead(stamp);
         }
+        return out;
+    }
 
-        return baos.toByteArray();
+    private static void copyTo(ByteBuffer buf, byte[] out) {
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(out);
     }
 
     /**
@@ -231,8 +349,15 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.getPageSize();
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.getPageSize());
+    }
+
+    /**
+     * Generates a byte array corresponding to an empty HeapPage of a file
+     * whose pages are pageSize bytes.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     /**
@@ -243,8 +368,20 @@ public class HeapPage implements Page {
      * @param t The tuple to delete
      */
     public void deleteTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        long stamp = frameLock.writeLock();
+        try {
+            if (!isSlotUsedLocked(slot))
+                throw new DbException("tuple slot " + slot + " is already empty");
+            captureBeforeImage();
+            markSlotUsed(slot, false);
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+        t.setRecordId(null);
     }
 
     /**
@@ -255,8 +392,28 @@ public class HeapPage implements Page {
      * @param t The tuple to add.
      */
     public void insertTuple(Tuple t) throws DbException {
-        // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple descriptor does not match this page");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null)
+                throw new DbException("tuple has no field " + j);
+        }
+        long stamp = frameLock.writeLock();
+        try {
+            int slot = nextSlot(data, 0, false);
+            if (slot == numSlots)
+                throw new DbException("page is full");
+            captureBeforeImage();
+            ByteBuffer out = data.duplicate();
+            for (int j = 0; j < td.numFields(); j++) {
+                out.position(fieldPosition(slot, j));
+                t.getField(j).serialize(out);
+            }
+            markSlotUsed(slot, true);
+            t.setRecordId(new RecordId(pid, slot));
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
     }
 
     /**
@@ -264,41 +421,131 @@ public class HeapPage implements Page {
      * that did the dirtying
      */
     public void markDirty(boolean dirty, TransactionId tid) {
-        // some code goes here
-	// not necessary for lab1
+        dirtier = dirty ? tid : null;
     }
 
     /**
      * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
      */
     public TransactionId isDirty() {
-        // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return dirtier;
     }
 
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
-        // some code goes here
-        return 0;
+        long stamp = frameLock.tryOptimisticRead();
+        int used = countUsed(data);
+        if (frameLock.validate(stamp))
+            return numSlots - used;
+        stamp = frameLock.readLock();
+        try {
+            return numSlots - countUsed(data);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    private int countUsed(ByteBuffer buf) {
+        int used = 0;
+        for (int w = 0, words = (numSlots + 63) >>> 6; w < words; w++)
+            used += Long.bitCount(headerWord(buf, w));
+        return used;
+    }
+
+    /**
+     * Reads the header bits of slots 64w to 64w+63 as one word, slot
+     * 64w+i in bit i.  Bits past the last slot are zero; the bytes past
+     * the header are tuple data and are never read.
+     */
+    private long headerWord(ByteBuffer buf, int w) {
+        int off = w << 3;
+        long word;
+        if (off + 8 <= headerSize) {
+            word = Long.reverseBytes(buf.getLong(off));
+        } else {
+            word = 0;
+            for (int i = headerSize - 1; i >= off; i--)
+                word = (word << 8) | (buf.get(i) & 0xff);
+        }
+        int valid = numSlots - (w << 6);
+        return valid < 64 ? word & ((1L << valid) - 1) : word;
+    }
+
+    /**
+     * @return the first slot at or after from that is used (or free, if
+     *   used is false), or numSlots if there is none
+     */
+    private int nextSlot(ByteBuffer buf, int from, boolean used) {
+        if (from >= numSlots)
+            return numSlots;
+        int w = from >>> 6;
+        long word = (used ? headerWord(buf, w) : ~headerWord(buf, w)) & (-1L << (from & 63));
+        while (word == 0) {
+            if (++w << 6 >= numSlots)
+                return numSlots;
+            word = used ? headerWord(buf, w) : ~headerWord(buf, w);
+        }
+        return Math.min((w << 6) + Long.numberOfTrailingZeros(word), numSlots);
+    }
+
+    /** nextSlot over used slots, for callers that do not hold the frame lock. */
+    private int nextUsedSlot(int from) {
+        long stamp = frameLock.tryOptimisticRead();
+        int slot = nextSlot(data, from, true);
+        if (frameLock.validate(stamp))
+            return slot;
+        stamp = frameLock.readLock();
+        try {
+            return nextSlot(data, from, true);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return true if insertTuple(t) would find room for t on this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
     }
 
     /**
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
-        // some code goes here
-        return false;
+        if (i < 0 || i >= numSlots)
+            return false;
+        long stamp = frameLock.tryOptimisticRead();
+        boolean used = (data.get(i / 8) & (1 << (i % 8))) != 0;
+        if (frameLock.validate(stamp))
+            return used;
+        stamp = frameLock.readLock();
+        try {
+            return (data.get(i / 8) & (1 << (i % 8))) != 0;
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
     }
 
     /**
-     * Abstraction to fill or clear a slot on this page.
+     * Abstraction to fill or clear a slot on this page.  The caller must
+     * hold the frame lock for writing.
      */
     private void markSlotUsed(int i, boolean value) {
-        // some code goes here
-        // not necessary for lab1
+        int b = data.get(i / 8);
+        b = value ? b | (1 << (i % 8)) : b & ~(1 << (i % 8));
+        data.put(i / 8, (byte) b);
+    }
+
+    /** isSlotUsed for callers that hold the frame lock. */
+    private boolean isSlotUsedLocked(int i) {
+        return isSlotUsedIn(data, i);
+    }
+
+    private boolean isSlotUsedIn(ByteBuffer buf, int i) {
+        return i >= 0 && i < numSlots && (buf.get(i / 8) & (1 << (i % 8))) != 0;
     }
 
     /**
@@ -306,8 +553,59 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        // some code goes here
-        return null;
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = readTuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that satisfy p.  Only
+     * p's field is decoded to test a tuple; the rest of it only if it matches.
+     */
+    public Iterator<Tuple> iterator(final Predicate p) {
+        return new Iterator<Tuple>() {
+            private int slot = nextMatch(0);
+
+            private int nextMatch(int from) {
+                int s = nextUsedSlot(from);
+                while (s < numSlots
+                        && !getField(s, p.getField()).compare(p.getOp(), p.getOperand()))
+                    s = nextUsedSlot(s + 1);
+                return s;
+            }
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = readTuple(slot);
+                slot = nextMatch(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
     }
 
 }
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of operation latencies, cheap enough to record into on every
+ * operation from many threads.
+ * <p>
+ * Latencies are counted in power-of-two buckets of nanoseconds, bucket i
+ * holding those in [2^i, 2^(i+1)), so percentiles read from a snapshot
+ * are exact to within a factor of two.
+ *
+ * @Threadsafe
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /** Records one operation that took the given number of nanoseconds. */
+    void record(long nanos) {
+        if (nanos < 1)
+            nanos = 1;
+        buckets[63 - Long.numberOfLeadingZeros(nanos)].increment();
+        totalNanos.add(nanos);
+    }
+
+    /** @return the counts recorded so far */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            counts[i] = buckets[i].sum();
+        return new Snapshot(counts, totalNanos.sum());
+    }
+
+    /**
+     * The state of a histogram at one moment.  Counts read while others
+     * are recording may be off by the operations in flight.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalNanos;
+
+        Snapshot(long[] counts, long totalNanos) {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            this.count = n;
+            this.totalNanos = totalNanos;
+        }
+
+        /** @return the number of operations recorded */
+        public long getCount() {
+            return count;
+        }
+
+        /** @return the sum of all recorded latencies, in nanoseconds */
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        /** @return the mean latency in nanoseconds, or zero if there is none */
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        /**
+         * @param p a fraction between 0 and 1
+         * @return an upper bound on the latency, in nanoseconds, of the
+         *   fastest fraction p of operations, or zero if there is none
+         */
+        public long getPercentileNanos(double p) {
+            if (count == 0)
+                return 0;
+            long rank = (long) Math.ceil(p * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0)
+                    return i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+            }
+            return Long.MAX_VALUE;
+        }
+
+        public String toString() {
+            return String.format("count=%d mean=%.1fus p50<=%.1fus p99<=%.1fus",
+                    count, getMeanNanos() / 1000,
+                    getPercentileNanos(0.5) / 1000.0, getPercentileNanos(0.99) / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LockManager grants transactions shared and exclusive locks on pages.
+ * <p>
+ * Locks are hierarchical: before locking a page, a transaction takes an
+ * intention lock on the page's table, IS for a shared page lock and IX for
+ * an exclusive one.  Once a transaction holds more than a threshold of
+ * page locks on one table, set with the system property
+ * simpledb.BufferPool.lockEscalation, the next page it locks there
+ * escalates its table lock to S, or to X if it has locked any of the
+ * table's pages exclusively, and its page locks on the table are
+ * released; the table lock covers all of its pages from then on, so a
+ * large scan or bulk update holds one lock instead of a lock per page.
+ * Escalation only happens if the table lock can be granted at once and
+ * no other request is queued for it, so that it never jumps the queue;
+ * otherwise the transaction carries on with page locks and tries again
+ * on its next page.
+ * <p>
+ * The lock table is split into stripes by the hash of the locked page or
+ * table, each guarded by its own monitor, so that locking unrelated pages
+ * never contends on a common lock.  A request that cannot be granted joins
+ * the resource's FIFO wait queue and parks its thread until a release
+ * grants it.  Requests are granted in arrival order, so a stream of
+ * readers cannot starve a writer, except that an upgrade to a stronger
+ * mode waits ahead of everyone else, since the upgrader already holds the
+ * resource.
+ * <p>
+ * Each transaction's locks are also kept in a per-transaction record,
+ * which lets a transaction re-request a page it already holds, as a scan
+ * does on every tuple of a page, without touching the lock table at all.
+ * <p>
+ * Deadlocks are detected when they form.  A blocked transaction waits for
+ * the holders of its page or table whose modes conflict with its request,
+ * and for the conflicting requests queued ahead of its own; behind a
+ * compatible request it waits for whatever that request waits for, as
+ * the two are granted together.  These edges make up the waits-for
+ * graph, and any cycle in it
+ * must pass through the request that closed it, so each request that
+ * blocks searches for a cycle back to itself.  The victim is the
+ * transaction in the cycle that has done the least work, counted in page
+ * updates ({@link #noteUpdate}), and it fails with a
+ * TransactionAbortedException.
+ *
+ * @Threadsafe
+ */
+class LockManager {
+
+    /** System property giving the number of page locks on a table that triggers escalation. */
+    static final String ESCALATION_PROPERTY = "simpledb.BufferPool.lockEscalation";
+
+    private static final int DEFAULT_ESCALATION = 1000;
+
+    /** Upper bound on the number of lock table stripes. */
+    private static final int MAX_STRIPES = 64;
+
+    // lock modes, weakest first; pages are only ever locked S or X
+    static final int IS = 0;
+    static final int IX = 1;
+    static final int S = 2;
+    static final int X = 3;
+
+    private static final boolean[][] COMPATIBLE = {
+        //         IS     IX     S      X
+        /* IS */ { true,  true,  true,  false },
+        /* IX */ { true,  true,  false, false },
+        /* S  */ { true,  false, true,  false },
+        /* X  */ { false, false, false, false },
+    };
+
+    /** @return whether holding mode held also grants mode wanted */
+    private static boolean covers(int held, int wanted) {
+        return held == wanted || held == X || wanted == IS;
+    }
+
+    /**
+     * @return the weakest mode that covers both a and b; S and IX combine
+     *   to X, as there is no SIX mode
+     */
+    private static int combine(int a, int b) {
+        if (covers(a, b))
+            return a;
+        if (covers(b, a))
+            return b;
+        return X;
+    }
+
+    /** The lock table key of a table lock. */
+    private static final class TableKey {
+        final int tableId;
+
+        TableKey(int tableId) {
+            this.tableId = tableId;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
+        }
+
+        public int hashCode() {
+            return ~tableId;
+        }
+    }
+
+    /** A queued request for a lock. */
+    private static final class Waiter {
+        final Txn txn;
+        /** The PageId or TableKey requested. */
+        final Object key;
+        final int mode;
+        final Thread thread;
+        /** Set, holding the resource's stripe, when the request leaves the queue. */
+        volatile boolean granted;
+        volatile boolean aborted;
+
+        Waiter(Txn txn, Object key, int mode) {
+            this.txn = txn;
+            this.key = key;
+            this.mode = mode;
+            this.thread = Thread.currentThread();
+        }
+    }
+
+    /** The holders and waiters of one page's or table's lock; guarded by its stripe. */
+    private static final class LockState {
+        /** The holders, mapped to the mode each holds. */
+        final Map<TransactionId, Integer> holders = new HashMap<TransactionId, Integer>(4);
+        final ArrayDeque<Waiter> queue = new ArrayDeque<Waiter>(2);
+    }
+
+    /** Lock manager state of one transaction. */
+    private static final class Txn {
+        final TransactionId tid;
+        /** The pages held, mapped to whether they are held exclusively. */
+        final ConcurrentHashMap<PageId, Boolean> pages = new ConcurrentHashMap<PageId, Boolean>();
+        /** The tables locked, mapped to the mode held. */
+        final ConcurrentHashMap<Integer, Integer> tables = new ConcurrentHashMap<Integer, Integer>();
+        /** The number of pages held on each table. */
+        final ConcurrentHashMap<Integer, Integer> pagesPerTable = new ConcurrentHashMap<Integer, Integer>();
+        /** Pages updated so far, the measure of work for victim selection. */
+        final AtomicInteger updates = new AtomicInteger();
+        /** The request this transaction is blocked on, if any. */
+        volatile Waiter waitingOn;
+
+        Txn(TransactionId tid) {
+            this.tid = tid;
+        }
+    }
+
+    private final Map<Object, LockState>[] stripes;
+    private final int stripeMask;
+    private final ConcurrentHashMap<TransactionId, Txn> txns;
+    private final int escalation;
+
+    /** Time spent blocked by requests that had to wait. */
+    final LatencyHistogram waitLatency = new LatencyHistogram();
+    /** Deadlocks broken by aborting a transaction. */
+    final LongAdder deadlocks = new LongAdder();
+    /** Page locks replaced by a table lock. */
+    final LongAdder escalations = new LongAdder();
+
+    LockManager() {
+        this(Integer.getInteger(ESCALATION_PROPERTY, DEFAULT_ESCALATION));
+    }
+
+    /**
+     * @param escalation the number of page locks a transaction may hold on
+     *   one table before it escalates to a table lock; zero or less never
+     *   escalates
+     */
+    LockManager(int escalation) {
+        int n = 1;
+        int target = Math.min(MAX_STRIPES, 4 * Runtime.getRuntime().availableProcessors());
+        while (n < target)
+            n <<= 1;
+        stripes = newStripes(n);
+        for (int i = 0; i < n; i++)
+            stripes[i] = new HashMap<Object, LockState>();
+        stripeMask = n - 1;
+        txns = new ConcurrentHashMap<TransactionId, Txn>();
+        this.escalation = escalation;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Object, LockState>[] newStripes(int n) {
+        return (Map<Object, LockState>[]) new Map<?, ?>[n];
+    }
+
+    private Map<Object, LockState> stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & stripeMask];
+    }
+
+    private Txn txnFor(TransactionId tid) {
+        Txn txn = txns.get(tid);
+        if (txn == null) {
+            Txn fresh = new Txn(tid);
+            txn = txns.putIfAbsent(tid, fresh);
+            if (txn == null)
+                txn = fresh;
+        }
+        return txn;
+    }
+
+    /**
+     * Blocks until tid holds a lock on pid in the requested mode, or a
+     * table lock that covers it.  A transaction that holds a shared lock
+     * and asks for an exclusive one is upgraded.
+     *
+     * @throws TransactionAbortedException if waiting for the lock would
+     *   deadlock and tid was chosen to abort
+     */
+    void acquire(TransactionId tid, PageId pid, boolean exclusive)
+        throws TransactionAbortedException {
+        Txn txn = txnFor(tid);
+        int tableId = pid.getTableId();
+        Integer table = txn.tables.get(tableId);
+        int wanted = exclusive ? X : S;
+        if (table != null && covers(table, wanted))
+            return;
+        Boolean mode = txn.pages.get(pid);
+        if (mode != null && (mode || !exclusive))
+            return;
+
+        int intention = exclusive ? IX : IS;
+        if (table == null || !covers(table, intention)) {
+            table = lock(txn, new TableKey(tableId), table == null ? intention : combine(table, intention));
+            txn.tables.put(tableId, table);
+            if (covers(table, wanted))
+                return;
+        }
+        if (escalation > 0 && mode == null
+                && txn.pagesPerTable.getOrDefault(tableId, 0) >= escalation
+                && tryEscalate(txn, tableId, table, exclusive))
+            return;
+
+        lock(txn, pid, wanted);
+        if (mode == null)
+            txn.pagesPerTable.merge(tableId, 1, Integer::sum);
+        txn.pages.put(pid, exclusive);
+    }
+
+    /**
+     * Blocks until txn holds the lock on key in the given mode, which
+     * must cover any mode it holds already.
+     *
+     * @return the mode now held
+     */
+    private int lock(Txn txn, Object key, int mode) throws TransactionAbortedException {
+        Map<Object, LockState> stripe = stripeFor(key);
+        Waiter w;
+        synchronized (stripe) {
+            LockState ls = stripe.get(key);
+            if (ls == null) {
+                ls = new LockState();
+                stripe.put(key, ls);
+            }
+            boolean upgrade = ls.holders.containsKey(txn.tid);
+            if (compatible(ls, txn.tid, mode) && (upgrade || ls.queue.isEmpty())) {
+                ls.holders.put(txn.tid, mode);
+                return mode;
+            }
+            w = new Waiter(txn, key, mode);
+            if (upgrade)
+                ls.queue.addFirst(w);
+            else
+                ls.queue.addLast(w);
+            txn.waitingOn = w;
+        }
+
+        long start = System.nanoTime();
+        try {
+            detectDeadlock(w);
+            boolean interrupted = false;
+            while (!w.granted && !w.aborted) {
+                LockSupport.park(this);
+                if (Thread.interrupted())
+                    interrupted = true;
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        } finally {
+            txn.waitingOn = null;
+            waitLatency.record(System.nanoTime() - start);
+        }
+        if (!w.granted)
+            throw new TransactionAbortedException();
+        return mode;
+    }
+
+    /**
+     * Replaces txn's page locks on a table with a table lock, if that can
+     * be granted without waiting and without passing a queued request.
+     *
+     * @param held the mode txn holds on the table now
+     * @param exclusive whether the page lock being requested is exclusive
+     * @return whether txn now holds the table lock
+     */
+    private boolean tryEscalate(Txn txn, int tableId, int held, boolean exclusive) {
+        int mode = exclusive ? X : S;
+        List<PageId> covered = new ArrayList<PageId>();
+        for (Map.Entry<PageId, Boolean> e : txn.pages.entrySet()) {
+            if (e.getKey().getTableId() == tableId) {
+                covered.add(e.getKey());
+                if (e.getValue())
+                    mode = X;
+            }
+        }
+        mode = combine(held, mode);
+        TableKey key = new TableKey(tableId);
+        Map<Object, LockState> stripe = stripeFor(key);
+        synchronized (stripe) {
+            LockState ls = stripe.get(key);
+            if (ls == null || !ls.queue.isEmpty() || !compatible(ls, txn.tid, mode))
+                return false;
+            ls.holders.put(txn.tid, mode);
+        }
+        txn.tables.put(tableId, mode);
+        for (PageId pid : covered) {
+            txn.pages.remove(pid);
+            unlock(txn.tid, pid);
+        }
+        txn.pagesPerTable.remove(tableId);
+        escalations.increment();
+        return true;
+    }
+
+    /** @return whether tid may hold the lock in the given mode alongside the other holders */
+    private static boolean compatible(LockState ls, TransactionId tid, int mode) {
+        for (Map.Entry<TransactionId, Integer> h : ls.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !COMPATIBLE[h.getValue()][mode])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Grants queued requests from the head of a resource's queue for as
+     * long as they are compatible with the holders.  Called holding the
+     * stripe.
+     */
+    private static void grantWaiters(LockState ls) {
+        Waiter w;
+        while ((w = ls.queue.peekFirst()) != null) {
+            if (!compatible(ls, w.txn.tid, w.mode))
+                return;
+            ls.queue.pollFirst();
+            ls.holders.put(w.txn.tid, w.mode);
+            w.granted = true;
+            LockSupport.unpark(w.thread);
+        }
+    }
+
+    /**
+     * Looks for a cycle in the waits-for graph through the request w,
+     * which has just blocked, and aborts the cheapest transaction on it.
+     */
+    private void detectDeadlock(Waiter w) {
+        List<Waiter> cycle = new ArrayList<Waiter>();
+        if (!findCycle(w.txn, w.txn, new HashSet<TransactionId>(), cycle))
+            return;
+        Waiter victim = null;
+        for (Waiter c : cycle) {
+            // fewest updates; among equals, the youngest
+            int work = c.txn.updates.get();
+            int least = victim == null ? 0 : victim.txn.updates.get();
+            if (victim == null || work < least
+                    || (work == least && c.txn.tid.getId() > victim.txn.tid.getId()))
+                victim = c;
+        }
+        if (abortWaiter(victim))
+            deadlocks.increment();
+    }
+
+    /**
+     * Depth-first search from txn along waits-for edges, for a path back
+     * to start.  On success the blocked requests along the path are in
+     * cycle.
+     */
+    private boolean findCycle(Txn txn, Txn start, Set<TransactionId> visited, List<Waiter> cycle) {
+        Waiter w = txn.waitingOn;
+        if (w == null || !visited.add(txn.tid))
+            return false;
+        cycle.add(w);
+        for (TransactionId next : waitsFor(w)) {
+            if (next.equals(start.tid))
+                return true;
+            Txn t = txns.get(next);
+            if (t != null && findCycle(t, start, visited, cycle))
+                return true;
+        }
+        cycle.remove(cycle.size() - 1);
+        return false;
+    }
+
+    /** @return the transactions a queued request is waiting for */
+    private List<TransactionId> waitsFor(Waiter w) {
+        List<TransactionId> out = new ArrayList<TransactionId>();
+        Map<Object, LockState> stripe = stripeFor(w.key);
+        synchronized (stripe) {
+            LockState ls = stripe.get(w.key);
+            if (ls == null || w.granted || w.aborted)
+                return out;
+            blockers(ls, w.txn.tid, w.mode, null, out);
+            List<Waiter> before = new ArrayList<Waiter>();
+            for (Waiter ahead : ls.queue) {
+                if (ahead == w)
+                    break;
+                if (!COMPATIBLE[ahead.mode][w.mode]) {
+                    if (!ahead.txn.tid.equals(w.txn.tid))
+                        out.add(ahead.txn.tid);
+                } else {
+                    // granted together with w, so w waits for what it waits for
+                    blockers(ls, ahead.txn.tid, ahead.mode, before, out);
+                }
+                before.add(ahead);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Adds to out the transactions other than tid that hold ls in a mode
+     * conflicting with mode, or that have a conflicting request in queued.
+     * Called holding the stripe.
+     */
+    private static void blockers(LockState ls, TransactionId tid, int mode,
+            List<Waiter> queued, List<TransactionId> out) {
+        for (Map.Entry<TransactionId, Integer> h : ls.holders.entrySet()) {
+            if (!h.getKey().equals(tid) && !COMPATIBLE[h.getValue()][mode])
+                out.add(h.getKey());
+        }
+        if (queued == null)
+            return;
+        for (Waiter q : queued) {
+            if (!q.txn.tid.equals(tid) && !COMPATIBLE[q.mode][mode])
+                out.add(q.txn.tid);
+        }
+    }
+
+    /**
+     * Fails a queued request, unless it was granted in the meantime.
+     *
+     * @return whether the request was failed
+     */
+    private boolean abortWaiter(Waiter w) {
+        Map<Object, LockState> stripe = stripeFor(w.key);
+        synchronized (stripe) {
+            LockState ls = stripe.get(w.key);
+            if (ls == null || w.granted || !ls.queue.remove(w))
+                return false;
+            w.aborted = true;
+            // requests queued behind the victim may be grantable now
+            grantWaiters(ls);
+            if (ls.holders.isEmpty() && ls.queue.isEmpty())
+                stripe.remove(w.key);
+        }
+        LockSupport.unpark(w.thread);
+        return true;
+    }
+
+    /**
+     * Records that tid has updated a page, for choosing deadlock victims.
+     */
+    void noteUpdate(TransactionId tid) {
+        txnFor(tid).updates.incrementAndGet();
+    }
+
+    /** @return whether tid holds a lock of either mode on pid, or an S or X lock on its table */
+    boolean holdsLock(TransactionId tid, PageId pid) {
+        Txn txn = txns.get(tid);
+        if (txn == null)
+            return false;
+        Integer table = txn.tables.get(pid.getTableId());
+        return txn.pages.containsKey(pid) || (table != null && covers(table, S));
+    }
+
+    /**
+     * @return the mode of tid's lock on a table, {@link #IS} to {@link #X},
+     *   or -1 if it holds none
+     */
+    int tableLockMode(TransactionId tid, int tableId) {
+        Txn txn = txns.get(tid);
+        Integer mode = txn == null ? null : txn.tables.get(tableId);
+        return mode == null ? -1 : mode;
+    }
+
+    /**
+     * Releases tid's lock on pid, if it holds one.  A table lock that
+     * covers the page is kept.
+     */
+    void release(TransactionId tid, PageId pid) {
+        Txn txn = txns.get(tid);
+        if (txn == null || txn.pages.remove(pid) == null)
+            return;
+        txn.pagesPerTable.computeIfPresent(pid.getTableId(), (t, n) -> n > 1 ? n - 1 : null);
+        unlock(tid, pid);
+    }
+
+    /** Releases every lock tid holds and forgets the transaction. */
+    void releaseAll(TransactionId tid) {
+        Txn txn = txns.remove(tid);
+        if (txn == null)
+            return;
+        for (Iterator<PageId> it = txn.pages.keySet().iterator(); it.hasNext(); )
+            unlock(tid, it.next());
+        for (Integer tableId : txn.tables.keySet())
+            unlock(tid, new TableKey(tableId));
+    }
+
+    private void unlock(TransactionId tid, Object key) {
+        Map<Object, LockState> stripe = stripeFor(key);
+        synchronized (stripe) {
+            LockState ls = stripe.get(key);
+            if (ls == null || ls.holders.remove(tid) == null)
+                return;
+            grantWaiters(ls);
+            if (ls.holders.isEmpty() && ls.queue.isEmpty())
+                stripe.remove(key);
+        }
+    }
+}
@@ -2,6 +2,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -240,9 +242,26 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        if (p instanceof HeapPage) {
+            // write straight from the page's buffer, holding the frame's
+            // read lock so no insert or delete changes it midway; the
+            // channel shares raf's file position
+            HeapPage hp = (HeapPage) p;
+            raf.writeInt(hp.pageSize);
+            FileChannel ch = raf.getChannel();
+            long stamp = hp.frameLock.readLock();
+            try {
+                ByteBuffer buf = hp.pageBuffer();
+                while (buf.hasRemaining())
+                    ch.write(buf);
+            } finally {
+                hp.frameLock.unlockRead(stamp);
+            }
+        } else {
+            byte[] pageData = p.getPageData();
+            raf.writeInt(pageData.length);
+            raf.write(pageData);
+        }
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -265,17 +284,25 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages must have a (PageId, byte[]) constructor; they may have others
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor in " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -466,11 +493,52 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    return;
+                // the earliest before image of each page is its state
+                // when the transaction first logged it
+                Map<PageId, Page> undo = new LinkedHashMap<PageId, Page>();
+                long end = raf.getFilePointer();
+                raf.seek(first);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    if (type == UPDATE_RECORD) {
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !undo.containsKey(before.getId()))
+                            undo.put(before.getId(), before);
+                    } else if (type == CHECKPOINT_RECORD) {
+                        raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                    }
+                    raf.readLong();
+                }
+                raf.seek(end);
+                install(undo.values());
             }
         }
     }
 
+    /**
+     * Writes pages to their files, a table at a time, and drops them from
+     * the buffer pool, which may hold other versions of them.
+     */
+    private void install(Collection<Page> pages) throws IOException {
+        Map<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+        for (Page p : pages) {
+            List<Page> l = byTable.get(p.getId().getTableId());
+            if (l == null)
+                byTable.put(p.getId().getTableId(), l = new ArrayList<Page>());
+            l.add(p);
+        }
+        for (Map.Entry<Integer, List<Page>> e : byTable.entrySet()) {
+            Database.getCatalog().getDatabaseFile(e.getKey()).writePages(e.getValue());
+            for (Page p : e.getValue())
+                Database.getBufferPool().discardPage(p.getId());
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -493,11 +561,115 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                // Pages are logged whole, so installing the after images
+                // of committed transactions in log order leaves each page
+                // as its last commit left it.  The pool is NO STEAL, so
+                // changes of transactions without a commit record never
+                // reached the data files and need no undo.  The pool
+                // empties the log before a FORCE commit, which is not
+                // logged, so no image here is older than one on disk.
+                Map<Long, List<Page>> running = new HashMap<Long, List<Page>>();
+                Map<PageId, Page> redo = new LinkedHashMap<PageId, Page>();
+                raf.seek(0);
+                try {
+                    raf.readLong(); // checkpoint; the log is read from its start
+                    while (true) {
+                        int type = raf.readInt();
+                        long tid = raf.readLong();
+                        switch (type) {
+                        case UPDATE_RECORD:
+                            skipPageData(raf);
+                            Page after = readPageOrNull(raf);
+                            List<Page> pages = running.get(tid);
+                            if (pages == null)
+                                running.put(tid, pages = new ArrayList<Page>());
+                            if (after != null)
+                                pages.add(after);
+                            break;
+                        case COMMIT_RECORD:
+                            List<Page> committed = running.remove(tid);
+                            if (committed != null) {
+                                for (Page p : committed)
+                                    redo.put(p.getId(), p);
+                            }
+                            break;
+                        case ABORT_RECORD:
+                            running.remove(tid);
+                            break;
+                        case CHECKPOINT_RECORD:
+                            raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                            break;
+                        }
+                        raf.readLong();
+                    }
+                } catch (EOFException e) {
+                    // the end of the log, or a record torn by the crash
+                }
+                install(redo.values());
+
+                // the data files now hold everything the log did
+                clear();
             }
          }
     }
 
+    /**
+     * Empties the log.  Called once the data files hold every change it
+     * records: by recovery, and by the buffer pool once every commit it
+     * logged has been written.
+     */
+    synchronized void clear() throws IOException {
+        recoveryUndecided = false;
+        raf.seek(0);
+        raf.setLength(0);
+        raf.writeLong(NO_CHECKPOINT_ID);
+        currentOffset = raf.getFilePointer();
+        tidToFirstLogRecord.clear();
+        force();
+    }
+
+    /**
+     * @return whether the log holds no records, counting those of an
+     *   earlier run that recovery has not yet decided on
+     */
+    synchronized boolean isEmpty() throws IOException {
+        if (recoveryUndecided)
+            return raf.length() <= LONG_SIZE;
+        return currentOffset <= LONG_SIZE;
+    }
+
+    /** Skips the page data of an update record. */
+    private static void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        raf.skipBytes(raf.readInt() * INT_SIZE);
+        int len = raf.readInt();
+        if (raf.getFilePointer() + len > raf.length())
+            throw new EOFException();
+        raf.skipBytes(len);
+    }
+
+    /**
+     * Reads the page data of an update record, or returns null if its
+     * table is not in the catalog; the log may name tables of another
+     * database.
+     */
+    private Page readPageOrNull(RandomAccessFile raf) throws IOException {
+        long start = raf.getFilePointer();
+        raf.readUTF();
+        raf.readUTF();
+        raf.readInt();
+        int tableId = raf.readInt();
+        raf.seek(start);
+        try {
+            Database.getCatalog().getDatabaseFile(tableId);
+        } catch (NoSuchElementException e) {
+            skipPageData(raf);
+            return null;
+        }
+        return readPageData(raf);
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
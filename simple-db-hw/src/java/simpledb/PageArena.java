@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageArena is a fixed set of page-sized frames carved out of direct
+ * (off-heap) memory, used by a BufferPool running in off-heap mode.  The
+ * memory is allocated once, up front, in chunks of at most 1 GB so that
+ * arenas larger than a single ByteBuffer can address are possible; frames
+ * are handed out and returned through a lock-free free list.
+ * <p>
+ * An arena can be resized.  Growing allocates more chunks; shrinking drops
+ * frames as they come back to the free list, and their memory is freed
+ * once the garbage collector finds every frame of a chunk unreachable.
+ *
+ * @Threadsafe
+ */
+class PageArena {
+
+    /** Largest single direct allocation. */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int pageSize;
+    /** Frames allocated and not yet dropped by a shrink. */
+    private final AtomicInteger numFrames = new AtomicInteger();
+    /** The number of frames the arena is being resized to. */
+    private volatile int targetFrames;
+    private final ConcurrentLinkedQueue<ByteBuffer> free;
+
+    /**
+     * Allocates an arena of numFrames frames of pageSize bytes each.
+     *
+     * @throws OutOfMemoryError if the direct memory cannot be reserved
+     *   (see -XX:MaxDirectMemorySize)
+     */
+    PageArena(int numFrames, int pageSize) {
+        this.pageSize = pageSize;
+        this.free = new ConcurrentLinkedQueue<ByteBuffer>();
+        setNumFrames(numFrames);
+    }
+
+    /**
+     * Grows or shrinks the arena to numFrames frames.  Frames in use when
+     * the arena shrinks are dropped when they are released.
+     *
+     * @throws OutOfMemoryError if growing needs more direct memory than
+     *   can be reserved
+     */
+    synchronized void setNumFrames(int numFrames) {
+        targetFrames = numFrames;
+        while (this.numFrames.get() > numFrames && free.poll() != null)
+            this.numFrames.decrementAndGet();
+        int framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / pageSize);
+        for (int done = this.numFrames.get(); done < numFrames; ) {
+            int n = Math.min(framesPerChunk, numFrames - done);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * pageSize);
+            for (int i = 0; i < n; i++) {
+                ByteBuffer frame = chunk.duplicate();
+                frame.position(i * pageSize);
+                frame.limit((i + 1) * pageSize);
+                free.add(frame.slice());
+            }
+            done += n;
+            this.numFrames.addAndGet(n);
+        }
+    }
+
+    /** @return the size in bytes of each frame */
+    int pageSize() {
+        return pageSize;
+    }
+
+    /** @return the total number of frames in this arena */
+    int numFrames() {
+        return numFrames.get();
+    }
+
+    /**
+     * Takes a free frame, cleared and positioned at zero.
+     *
+     * @return a frame, or null if all frames are in use
+     */
+    ByteBuffer allocate() {
+        ByteBuffer frame = free.poll();
+        if (frame != null)
+            frame.clear();
+        return frame;
+    }
+
+    /** Returns a frame obtained from {@link #allocate} to the arena. */
+    void release(ByteBuffer frame) {
+        while (true) {
+            int n = numFrames.get();
+            if (n <= targetFrames) {
+                free.add(frame);
+                return;
+            }
+            if (numFrames.compareAndSet(n, n - 1))
+                return;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses page images with the JDK's deflate at its fastest setting,
+ * for the BufferPool's {@link CompressedPageCache} and for
+ * {@link CompressedHeapFile}.  Each thread keeps its own Deflater and
+ * Inflater, so nothing is allocated per page but the output.
+ */
+class PageCodec {
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(
+            () -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private PageCodec() {
+    }
+
+    /**
+     * @return data deflated, or null if that would not make it smaller
+     */
+    static byte[] deflate(byte[] data) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] out = new byte[data.length];
+        int n = 0;
+        while (!deflater.finished() && n < out.length)
+            n += deflater.deflate(out, n, out.length - n);
+        if (!deflater.finished() || n >= data.length)
+            return null;
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Inflates len bytes of src from off into all of out.
+     *
+     * @return false if they are corrupt or do not inflate to exactly
+     *   out.length bytes
+     */
+    static boolean inflate(byte[] src, int off, int len, byte[] out) {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(src, off, len);
+        try {
+            int n = 0;
+            while (n < out.length && !inflater.finished()) {
+                int k = inflater.inflate(out, n, out.length - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    return false;
+                n += k;
+            }
+            return n == out.length;
+        } catch (DataFormatException e) {
+            return false;
+        }
+    }
+}
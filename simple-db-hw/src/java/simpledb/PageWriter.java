@@ -0,0 +1,126 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PageWriter trickles committed pages from a BufferPool to disk on a
+ * background thread, so that commits need not write their pages and
+ * evictions mostly find victims that are already on disk.
+ * <p>
+ * While a writer is enabled the pool commits NO FORCE: a committing
+ * transaction logs its pages to the {@link LogFile}, forces the log, and
+ * leaves the pages to be written here.  Should the database stop before
+ * they are, {@link LogFile#recover}, run when the catalog is next loaded,
+ * writes them from the log.  Each time the writer runs out of pages it
+ * empties the log, as every commit there is then on disk.  The pool stays
+ * NO STEAL, because what the writer writes is a page's before image, which
+ * is its last committed state, and never changes of transactions still
+ * running.
+ * <p>
+ * Writes are paced to a rate in pages per second, set with the system
+ * property simpledb.BufferPool.writeRate or at runtime through
+ * {@link BufferPool#setWriteRate}; zero turns the writer off and commits
+ * go back to writing their own pages.  The thread runs only while there
+ * are committed pages left to write.
+ *
+ * @Threadsafe
+ */
+class PageWriter implements Runnable {
+
+    /** System property giving the write rate of new pools, in pages per second. */
+    static final String RATE_PROPERTY = "simpledb.BufferPool.writeRate";
+
+    /** Interval between batches of writes. */
+    private static final long TICK_NANOS = 100 * 1000 * 1000L;
+    private static final long SECOND_NANOS = 1000 * 1000 * 1000L;
+
+    private final BufferPool pool;
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong written = new AtomicLong();
+    private volatile int rate;
+    private volatile double writtenPerSecond;
+
+    PageWriter(BufferPool pool, int rate) {
+        this.pool = pool;
+        this.rate = Math.max(0, rate);
+    }
+
+    int getRate() {
+        return rate;
+    }
+
+    void setRate(int rate) {
+        if (rate < 0)
+            throw new IllegalArgumentException("write rate must not be negative");
+        this.rate = rate;
+        wake();
+    }
+
+    /** @return the number of pages this writer has written */
+    long getPagesWritten() {
+        return written.get();
+    }
+
+    /** @return pages written over the last second, or zero while idle */
+    double getPagesWrittenPerSecond() {
+        return writtenPerSecond;
+    }
+
+    /** Starts the writer thread if it is enabled, idle and has work. */
+    void wake() {
+        if (rate > 0 && pool.pendingWrites() > 0 && running.compareAndSet(false, true)) {
+            Thread t = new Thread(this, "simpledb-page-writer");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    public void run() {
+        long windowStart = System.nanoTime();
+        long windowWritten = 0;
+        double credit = 0;
+        while (true) {
+            int r = rate;
+            if (r > 0 && pool.pendingWrites() > 0) {
+                // carry fractional pages between ticks, but never bank more
+                // than a second's worth while there was nothing to write
+                credit = Math.min(credit + (double) r * TICK_NANOS / SECOND_NANOS, Math.max(1, r));
+                int budget = (int) credit;
+                int n = 0;
+                try {
+                    n = pool.writePending(budget);
+                } catch (IOException e) {
+                    // leave the pages pending; eviction or a later tick retries them
+                    e.printStackTrace();
+                }
+                credit -= n;
+                written.addAndGet(n);
+                windowWritten += n;
+                long now = System.nanoTime();
+                if (now - windowStart >= SECOND_NANOS) {
+                    writtenPerSecond = (double) windowWritten * SECOND_NANOS / (now - windowStart);
+                    windowStart = now;
+                    windowWritten = 0;
+                }
+                LockSupport.parkNanos(TICK_NANOS);
+                continue;
+            }
+            writtenPerSecond = 0;
+            if (pool.pendingWrites() == 0) {
+                try {
+                    pool.truncateLog();
+                } catch (IOException e) {
+                    // the log stays; recovery redoes what is already written
+                    e.printStackTrace();
+                }
+            }
+            running.set(false);
+            // a commit may have found us still running just before we stopped
+            if (rate <= 0 || pool.pendingWrites() == 0 || !running.compareAndSet(false, true))
+                return;
+        }
+    }
+}
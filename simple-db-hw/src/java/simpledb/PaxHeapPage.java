@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapPage laid out column by column, in the PAX style: the page has the
+ * same header and the same number of slots as a HeapPage, but the bytes
+ * after the header are divided into one minipage per column, each holding
+ * that column's value for every slot in slot order.  Field i of slot s is
+ * at
+ * <pre>
+ *     header size + numSlots * (offset of field i) + s * (size of field i)
+ * </pre>
+ * Reading one column of many tuples, as a predicate or an aggregate does
+ * through {@link #getField}, walks one contiguous run of bytes instead of
+ * striding through every tuple, while a whole tuple is still on one page.
+ * A page of zeros is an empty page, as for a HeapPage.
+ *
+ * @see HeapFile.Layout#PAX
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /** Position of the minipage of each column. */
+    private final int[] columnStarts;
+
+    /**
+     * Create a PaxHeapPage from a page of bytes read from disk.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a PaxHeapPage that is a view over the given page-sized
+     * buffer, without copying it.
+     */
+    PaxHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        this.columnStarts = columnStarts(td, headerSize, numSlots);
+    }
+
+    private static int[] columnStarts(TupleDesc td, int headerSize, int numSlots) {
+        int[] starts = new int[td.numFields()];
+        for (int i = 0; i < starts.length; i++)
+            starts[i] = headerSize + numSlots * td.getFieldOffset(i);
+        return starts;
+    }
+
+    @Override
+    HeapPage viewOf(ByteBuffer buf) throws IOException {
+        return new PaxHeapPage(pid, buf);
+    }
+
+    @Override
+    int fieldPosition(int slotId, int i) {
+        return columnStarts[i] + slotId * td.getFieldType(i).getLen();
+    }
+
+    /**
+     * Rewrites a page in HeapPage's layout as the same page in this
+     * layout.  The header and the slots are unchanged; only the fields
+     * move.
+     *
+     * @param rows the page in HeapPage's layout
+     * @param out where to write the page, as long as rows
+     */
+    static void fromRows(byte[] rows, byte[] out, TupleDesc td) {
+        int numSlots = (rows.length * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] starts = columnStarts(td, headerSize, numSlots);
+        java.util.Arrays.fill(out, (byte) 0);
+        System.arraycopy(rows, 0, out, 0, headerSize);
+        for (int s = 0; s < numSlots; s++) {
+            int row = headerSize + s * td.getSize();
+            for (int i = 0; i < starts.length; i++) {
+                int len = td.getFieldType(i).getLen();
+                System.arraycopy(rows, row + td.getFieldOffset(i), out, starts[i] + s * len, len);
+            }
+        }
+    }
+}
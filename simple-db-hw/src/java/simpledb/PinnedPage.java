@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A page pinned in the BufferPool by {@link BufferPool#pinPage}.  While
+ * the handle is open the page is not evicted, so its Page object can be
+ * read in place, without copying, however long the caller takes.
+ * Closing the handle unpins the page; closing it again does nothing.
+ * The pool closes any handle still open when its transaction completes.
+ * <p>
+ * A handle belongs to the thread that pinned the page and must not be
+ * shared.
+ */
+public class PinnedPage implements AutoCloseable {
+
+    private final BufferPool pool;
+    private final TransactionId tid;
+    private final BufferPool.Frame frame;
+    /** Set once; the pool may close a handle from another thread. */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    PinnedPage(BufferPool pool, TransactionId tid, BufferPool.Frame frame) {
+        this.pool = pool;
+        this.tid = tid;
+        this.frame = frame;
+    }
+
+    /** @return the pinned page */
+    public Page getPage() {
+        return frame.page;
+    }
+
+    /** Unpins the page, letting the pool evict it again. */
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+        frame.pins.decrementAndGet();
+        pool.unpinned(tid, this);
+    }
+}
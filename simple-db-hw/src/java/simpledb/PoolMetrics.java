@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters a BufferPool keeps about its own work.  Every counter is a
+ * LongAdder, so recording is a contention-free add that is cheap enough
+ * to leave on; the cost moves to reading them, in {@link BufferPoolStats}.
+ *
+ * @Threadsafe
+ */
+class PoolMetrics {
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+    final LongAdder pagesRead = new LongAdder();
+    final LongAdder pagesWritten = new LongAdder();
+    /** Misses answered from the compressed second tier instead of disk. */
+    final LongAdder compressedHits = new LongAdder();
+
+    /** getPage calls that missed, from the miss until the page was cached. */
+    final LatencyHistogram missLatency = new LatencyHistogram();
+    /** DbFile.readPage calls made by the pool. */
+    final LatencyHistogram readLatency = new LatencyHistogram();
+    /** DbFile.writePage calls made by the pool. */
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private final ConcurrentHashMap<Integer, LongAdder> readsByTable =
+            new ConcurrentHashMap<Integer, LongAdder>();
+    private final ConcurrentHashMap<Integer, LongAdder> writesByTable =
+            new ConcurrentHashMap<Integer, LongAdder>();
+
+    /** Records one page read from disk, and how long it took. */
+    void pageRead(PageId pid, long nanos) {
+        pagesRead.increment();
+        counter(readsByTable, pid.getTableId()).increment();
+        readLatency.record(nanos);
+    }
+
+    /** Records one page written to disk, and how long it took. */
+    void pageWritten(PageId pid, long nanos) {
+        pagesWritten.increment();
+        counter(writesByTable, pid.getTableId()).increment();
+        writeLatency.record(nanos);
+    }
+
+    private static LongAdder counter(ConcurrentHashMap<Integer, LongAdder> map, int tableId) {
+        LongAdder c = map.get(tableId);
+        if (c == null) {
+            LongAdder fresh = new LongAdder();
+            c = map.putIfAbsent(tableId, fresh);
+            if (c == null)
+                c = fresh;
+        }
+        return c;
+    }
+
+    static Map<Integer, Long> sums(ConcurrentHashMap<Integer, LongAdder> map) {
+        Map<Integer, Long> out = new HashMap<Integer, Long>();
+        for (Map.Entry<Integer, LongAdder> e : map.entrySet())
+            out.put(e.getKey(), e.getValue().sum());
+        return out;
+    }
+
+    Map<Integer, Long> readsByTable() {
+        return sums(readsByTable);
+    }
+
+    Map<Integer, Long> writesByTable() {
+        return sums(writesByTable);
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * A named share of the BufferPool, defined with
+ * {@link Catalog#definePartition} and given to tables with
+ * {@link Catalog#setTablePartition}.
+ * <p>
+ * Quotas are in bytes, like the pool's budget, and each page counts
+ * against them its table's page size.  The pages of a partition's tables
+ * occupy at most maxBytes of the pool: once they do, a miss on one of
+ * them evicts other pages of the same partition until it fits, though a
+ * single page larger than maxBytes is let into an empty partition.  Pages
+ * of other tables never evict a partition's pages while they occupy
+ * minBytes or less, so a small table whose partition has a minimum of its
+ * size stays cached however much else is read.  The minimums of all
+ * partitions should add up to well under the pool's budget, or reads of
+ * unpartitioned tables may find nothing to evict.
+ *
+ * @Threadsafe
+ */
+public class PoolPartition {
+
+    private final String name;
+    private volatile long minBytes;
+    private volatile long maxBytes;
+
+    PoolPartition(String name, long minBytes, long maxBytes) {
+        this.name = name;
+        setQuotas(minBytes, maxBytes);
+    }
+
+    void setQuotas(long minBytes, long maxBytes) {
+        if (minBytes < 0 || maxBytes < 1 || minBytes > maxBytes)
+            throw new IllegalArgumentException("need 0 <= minBytes <= maxBytes and maxBytes >= 1");
+        this.minBytes = minBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return the bytes of the pool kept for this partition's pages */
+    public long getMinBytes() {
+        return minBytes;
+    }
+
+    /** @return the most bytes of the pool this partition's pages may occupy */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public String toString() {
+        return name + "[" + minBytes + ".." + maxBytes + " bytes]";
+    }
+}
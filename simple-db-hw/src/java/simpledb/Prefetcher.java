@@ -0,0 +1,137 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prefetcher watches the pages a BufferPool is asked for and, once it sees
+ * a table being read in page order, reads the next pages of that table on
+ * background threads so that they are already cached (or at least on their
+ * way) when the scan gets to them.
+ * <p>
+ * Detection is per table: two consecutive requests for pages n and n+1 of
+ * the same heap file start a read-ahead window of depth pages past n, and
+ * the window is topped up whenever the scan has consumed half of it.  Any
+ * non-sequential request resets the stream.  Read-ahead is advisory, so a
+ * prefetch that cannot find room in the pool is simply dropped.
+ * <p>
+ * The window never exceeds half the pool's budget, in pages of the table
+ * being read, so that read-ahead cannot evict
+ * pages before the scan reaches them, and a scan reading through a ring
+ * ({@link AccessStrategy}) reads ahead at most a ring's worth of pages.
+ * <p>
+ * The depth is set with the system property
+ * simpledb.BufferPool.prefetchDepth, or at runtime through
+ * {@link BufferPool#setPrefetchDepth}; zero turns read-ahead off.
+ *
+ * @Threadsafe
+ */
+class Prefetcher {
+
+    /** System property giving the read-ahead depth of new pools, in pages. */
+    static final String DEPTH_PROPERTY = "simpledb.BufferPool.prefetchDepth";
+
+    /** Number of background I/O threads per pool. */
+    private static final int IO_THREADS = 4;
+
+    /** Sequential-access state of one table. */
+    private static final class Stream {
+        /** Last page requested; -2 so that page 0 does not look sequential. */
+        volatile int lastPage = -2;
+        /** Last page handed to the I/O threads. */
+        volatile int issuedUpTo = -1;
+    }
+
+    private final BufferPool pool;
+    private final ConcurrentHashMap<Integer, Stream> streams;
+    private final ThreadPoolExecutor io;
+    private volatile int depth;
+
+    Prefetcher(BufferPool pool, int depth) {
+        this.pool = pool;
+        this.depth = Math.max(0, depth);
+        this.streams = new ConcurrentHashMap<Integer, Stream>();
+        this.io = new ThreadPoolExecutor(IO_THREADS, IO_THREADS, 1, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-prefetch");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        // idle pools (e.g. ones replaced by Database.resetBufferPool) keep no threads
+        io.allowCoreThreadTimeOut(true);
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    void setDepth(int depth) {
+        if (depth < 0)
+            throw new IllegalArgumentException("prefetch depth must not be negative");
+        this.depth = depth;
+    }
+
+    /**
+     * Records a request for pid, issuing read-ahead if it continues a
+     * sequential run.  Called on every getPage, so the common case is a map
+     * lookup and a compare.
+     *
+     * @param strategy the access strategy of the request, or null
+     */
+    void accessed(PageId pid, AccessStrategy strategy) {
+        int d = depth;
+        if (d <= 0 || !(pid instanceof HeapPageId))
+            return;
+        if (strategy != null)
+            d = Math.min(d, strategy.size());
+        int tableId = pid.getTableId();
+        Stream s = streams.get(tableId);
+        if (s == null) {
+            Stream fresh = new Stream();
+            s = streams.putIfAbsent(tableId, fresh);
+            if (s == null)
+                s = fresh;
+        }
+        int pg = pid.getPageNumber();
+        boolean sequential = pg == s.lastPage + 1;
+        s.lastPage = pg;
+        if (!sequential) {
+            s.issuedUpTo = pg;
+            return;
+        }
+        if (pg + d / 2 < s.issuedUpTo)
+            return;
+
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(tableId);
+        } catch (java.util.NoSuchElementException e) {
+            return;
+        }
+        if (!(file instanceof HeapFile))
+            return;
+        if (strategy == null)
+            d = (int) Math.min(d, Math.max(1, pool.getBudgetBytes() / 2 / file.getPageSize()));
+        int end = Math.min(pg + d, ((HeapFile) file).numPages() - 1);
+        int start = Math.max(s.issuedUpTo + 1, pg + 1);
+        s.issuedUpTo = Math.max(s.issuedUpTo, end);
+        for (int p = start; p <= end; p++) {
+            final PageId next = new HeapPageId(tableId, p);
+            try {
+                io.execute(new Runnable() {
+                    public void run() {
+                        pool.prefetchPage(next);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+        }
+    }
+}
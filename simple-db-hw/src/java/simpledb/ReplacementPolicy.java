@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up
+ * when it needs room for another one.  The pool tells the policy about
+ * every frame that becomes resident, is hit, or leaves the pool, and asks
+ * it for eviction candidates.
+ * <p>
+ * The pool may reject a candidate (for example because the page is dirty
+ * under NO STEAL), in which case it asks again; implementations should
+ * therefore hand out different frames on successive calls rather than
+ * proposing the same one forever.
+ * <p>
+ * The policy used by a new BufferPool is chosen with the system property
+ * simpledb.BufferPool.policy, e.g. -Dsimpledb.BufferPool.policy=2q.
+ *
+ * @Threadsafe
+ * @see BufferPool
+ */
+interface ReplacementPolicy {
+
+    /** System property naming the policy used by new BufferPools. */
+    public static final String POLICY_PROPERTY = "simpledb.BufferPool.policy";
+
+    /** Name of the CLOCK policy; the default. */
+    public static final String CLOCK = "clock";
+
+    /** Name of the 2Q policy. */
+    public static final String TWO_QUEUE = "2q";
+
+    /** A page has just been loaded into f and is now resident. */
+    public void admit(BufferPool.Frame f);
+
+    /** getPage found f in the pool. Called on every hit, so keep it cheap. */
+    public void access(BufferPool.Frame f);
+
+    /** f has left the pool, either as a victim or through discardPage. */
+    public void remove(BufferPool.Frame f);
+
+    /**
+     * Proposes a frame to evict.
+     *
+     * @return a resident frame, or null if the policy tracks no frames
+     */
+    public BufferPool.Frame nextVictim();
+
+    /**
+     * The pool's capacity has changed to numPages.  Called before a pool
+     * grows and after it has started shrinking, so a policy must cope
+     * with tracking more frames than the new capacity for a while.
+     */
+    public void setCapacity(int numPages);
+
+    /**
+     * Creates the policy with the given name for a pool of the given size.
+     *
+     * @throws IllegalArgumentException if name is not a known policy
+     */
+    public static ReplacementPolicy create(String name, int numPages) {
+        if (name == null || name.equalsIgnoreCase(CLOCK))
+            return new ClockPolicy(numPages);
+        if (name.equalsIgnoreCase(TWO_QUEUE))
+            return new TwoQueuePolicy(numPages);
+        throw new IllegalArgumentException("unknown replacement policy " + name);
+    }
+}
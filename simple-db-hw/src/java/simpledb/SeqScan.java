@@ -5,12 +5,19 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk).  Given a Predicate, it returns only the tuples that satisfy it,
+ * and over a HeapFile it skips the pages whose zone map rules them out.
  */
 public class SeqScan implements OpIterator {
 
     private static final long serialVersionUID = 1L;
 
+    private final TransactionId tid;
+    private final Predicate predicate;
+    private int tableid;
+    private String tableAlias;
+    private transient DbFileIterator it;
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -28,7 +35,22 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
-        // some code goes here
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that returns only
+     * the tuples satisfying a predicate.
+     *
+     * @param p
+     *            the predicate, over the fields of the table, or null for
+     *            every tuple
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate p) {
+        this.tid = tid;
+        this.predicate = p;
+        reset(tableid, tableAlias);
     }
 
     /**
@@ -37,7 +59,7 @@ public class SeqScan implements OpIterator {
      *       be the actual name of the table in the catalog of the database
      * */
     public String getTableName() {
-        return null;
+        return Database.getCatalog().getTableName(tableid);
     }
 
     /**
@@ -45,8 +67,7 @@ public class SeqScan implements OpIterator {
      * */
     public String getAlias()
     {
-        // some code goes here
-        return null;
+        return tableAlias;
     }
 
     /**
@@ -62,7 +83,9 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        // some code goes here
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.it = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
@@ -70,7 +93,18 @@ public class SeqScan implements OpIterator {
     }
 
     public void open() throws DbException, TransactionAbortedException {
-        // some code goes here
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            // tables too big to cache are read through a private ring of frames
+            HeapFile hf = (HeapFile) file;
+            it = hf.iterator(tid, Database.getBufferPool().scanStrategy(hf.numPages(), hf.getPageSize()),
+                    predicate);
+        } else if (predicate != null) {
+            it = new FilteredIterator(file.iterator(tid), predicate);
+        } else {
+            it = file.iterator(tid);
+        }
+        it.open();
     }
 
     /**
@@ -84,27 +118,73 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        // some code goes here
-        return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        int n = td.numFields();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        return false;
+        return it != null && it.hasNext();
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        // some code goes here
-        return null;
+        if (it == null)
+            throw new NoSuchElementException("scan is not open");
+        return it.next();
     }
 
     public void close() {
-        // some code goes here
+        if (it != null)
+            it.close();
+        it = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        // some code goes here
+        if (it == null)
+            throw new DbException("scan is not open");
+        it.rewind();
+    }
+
+    /** Passes on the tuples of another iterator that satisfy a predicate. */
+    private static class FilteredIterator extends AbstractDbFileIterator {
+
+        private final DbFileIterator child;
+        private final Predicate p;
+
+        FilteredIterator(DbFileIterator child, Predicate p) {
+            this.child = child;
+            this.p = p;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (p.filter(t))
+                    return t;
+            }
+            return null;
+        }
     }
 }
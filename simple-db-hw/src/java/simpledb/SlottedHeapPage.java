@@ -0,0 +1,436 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A HeapPage laid out as a slotted page, so that each tuple takes only
+ * the bytes it needs: VARCHAR fields are stored as a two-byte length and
+ * their characters instead of being padded to Type.STRING_LEN.  Fields of
+ * other types are stored as they are in a HeapPage.
+ * <p>
+ * The page starts with the number of entries in its slot directory and
+ * the offset at which tuple data begins, both unsigned shorts.  Then comes
+ * the directory, with the offset and length of each slot's tuple, or
+ * zeros if the slot is empty.  Tuples are packed from the end of the page
+ * towards the directory.  A page of zeros is an empty page, so
+ * {@link HeapPage#createEmptyPageData} serves for both layouts.
+ * <p>
+ * A tuple keeps its slot, and so its RecordId, for as long as it is on
+ * the page.  Deleting a tuple leaves a hole in the tuple data, which is
+ * reclaimed by compacting the page when an insert would not fit without
+ * it.
+ * <p>
+ * Offsets are unsigned shorts, so slotted pages are at most 64KB.  Unlike
+ * HeapPage, reads take the frame lock's read lock rather than validating
+ * optimistically: a directory read while it changes may point anywhere.
+ *
+ * @see HeapFile#HeapFile(File, TupleDesc, int, boolean)
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    /** Bytes before the slot directory: the slot count and the start of tuple data. */
+    static final int HEADER_BYTES = 4;
+    /** Bytes per slot directory entry: the tuple's offset and length. */
+    static final int SLOT_BYTES = 4;
+    /** Size of the largest page whose offsets fit in an unsigned short. */
+    public static final int MAX_PAGE_SIZE = 1 << 16;
+
+    /**
+     * Create a SlottedHeapPage from a page of bytes read from disk.
+     *
+     * @throws IOException if the page is larger than MAX_PAGE_SIZE
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a SlottedHeapPage that is a view over the given page-sized
+     * buffer, without copying it.
+     */
+    SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IOException("slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+    }
+
+    @Override
+    HeapPage viewOf(ByteBuffer buf) throws IOException {
+        return new SlottedHeapPage(pid, buf);
+    }
+
+    /**
+     * Returns the number of tuples of the largest size this table allows
+     * that would still fit on this page.  Shorter tuples may fit where
+     * this is zero; see {@link #hasRoomFor}.
+     */
+    @Override
+    public int getNumEmptySlots() {
+        long stamp = frameLock.readLock();
+        try {
+            int free = freeBytes(data, pageSize, slotCount(data));
+            return Math.max(free, 0) / (maxSize(td) + SLOT_BYTES);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int size = encodedSize(td, t);
+        long stamp = frameLock.readLock();
+        try {
+            return fits(data, pageSize, size);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        long stamp = frameLock.readLock();
+        try {
+            return isUsed(data, i);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public Field getField(int slotId, int i) throws NoSuchElementException {
+        Type type = td.getFieldType(i);
+        long stamp = frameLock.readLock();
+        try {
+            ByteBuffer in = tupleBuffer(slotId);
+            for (int j = 0; j < i; j++)
+                skipField(in, td.getFieldType(j));
+            return decodeField(in, type);
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple descriptor does not match this page");
+        for (int j = 0; j < td.numFields(); j++) {
+            if (t.getField(j) == null)
+                throw new DbException("tuple has no field " + j);
+            // encode would cut the string short
+            if (td.getFieldType(j).isVariableLength()
+                    && ((StringField) t.getField(j)).getValue().length() > Type.STRING_LEN)
+                throw new DbException("field " + j + " is longer than " + Type.STRING_LEN + " characters");
+        }
+        int size = encodedSize(td, t);
+        long stamp = frameLock.writeLock();
+        try {
+            if (!fits(data, pageSize, size))
+                throw new DbException("page is full");
+            captureBeforeImage();
+            int slot = insert(data, pageSize, td, t);
+            t.setRecordId(new RecordId(pid, slot));
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on this page");
+        int slot = rid.getTupleNumber();
+        long stamp = frameLock.writeLock();
+        try {
+            ByteBuffer buf = data;
+            if (!isUsed(buf, slot))
+                throw new DbException("tuple slot " + slot + " is already empty");
+            captureBeforeImage();
+            int n = slotCount(buf);
+            int start = dataStart(buf, pageSize);
+            // the most recently inserted tuple's bytes can be given back at once
+            if (slotOffset(buf, slot) == start)
+                start += slotLength(buf, slot);
+            setSlot(buf, slot, 0, 0);
+            while (n > 0 && slotOffset(buf, n - 1) == 0)
+                n--;
+            setHeader(buf, n, n == 0 ? pageSize : start);
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
+        t.setRecordId(null);
+    }
+
+    @Override
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int slot = nextUsedSlot(0);
+
+            public boolean hasNext() {
+                return slot >= 0;
+            }
+
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                Tuple t = readTuple(slot);
+                slot = nextUsedSlot(slot + 1);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Finding a field means walking the fields before it, so the tuples
+     * are decoded whole and then tested.
+     */
+    @Override
+    public Iterator<Tuple> iterator(final Predicate p) {
+        final Iterator<Tuple> all = iterator();
+        return new Iterator<Tuple>() {
+            private Tuple next = advance();
+
+            private Tuple advance() {
+                while (all.hasNext()) {
+                    Tuple t = all.next();
+                    if (p.filter(t))
+                        return t;
+                }
+                return null;
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Tuple next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Tuple t = next;
+                next = advance();
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** @return the first used slot at or after from, or -1 if there is none */
+    private int nextUsedSlot(int from) {
+        long stamp = frameLock.readLock();
+        try {
+            ByteBuffer buf = data;
+            for (int n = slotCount(buf); from < n; from++) {
+                if (slotOffset(buf, from) != 0)
+                    return from;
+            }
+            return -1;
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
+        long stamp = frameLock.readLock();
+        try {
+            ByteBuffer in = tupleBuffer(slotId);
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slotId));
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, decodeField(in, td.getFieldType(j)));
+            return t;
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return a buffer positioned at the tuple in a used slot.  Called
+     *   holding the frame lock.
+     */
+    private ByteBuffer tupleBuffer(int slotId) throws NoSuchElementException {
+        ByteBuffer buf = data;
+        if (!isUsed(buf, slotId))
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        ByteBuffer in = buf.duplicate();
+        in.position(slotOffset(buf, slotId));
+        return in;
+    }
+
+    private static Field decodeField(ByteBuffer in, Type type) throws NoSuchElementException {
+        try {
+            if (!type.isVariableLength())
+                return type.parse(in);
+            int len = in.getShort() & 0xffff;
+            if (len > Type.STRING_LEN)
+                throw new java.text.ParseException("bad string length " + len, in.position());
+            byte[] bs = new byte[len];
+            in.get(bs);
+            return new VarcharField(new String(bs));
+        } catch (java.text.ParseException e) {
+            throw parseError(e);
+        }
+    }
+
+    private static void skipField(ByteBuffer in, Type type) {
+        int len = type.isVariableLength() ? in.getShort() & 0xffff : type.getLen();
+        in.position(in.position() + len);
+    }
+
+    /** @return the bytes the largest tuple of td takes on a slotted page */
+    static int maxSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            size += type.isVariableLength() ? 2 + Type.STRING_LEN : type.getLen();
+        }
+        return size;
+    }
+
+    /** @return the bytes t takes on a slotted page */
+    static int encodedSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            size += type.isVariableLength()
+                    ? 2 + Math.min(((StringField) t.getField(i)).getValue().length(), Type.STRING_LEN)
+                    : type.getLen();
+        }
+        return size;
+    }
+
+    /** Writes t at the buffer's position, as encodedSize(td, t) bytes. */
+    private static void encode(ByteBuffer out, TupleDesc td, Tuple t) {
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i).isVariableLength()) {
+                String s = ((StringField) f).getValue();
+                int len = Math.min(s.length(), Type.STRING_LEN);
+                out.putShort((short) len);
+                for (int j = 0; j < len; j++)
+                    out.put((byte) s.charAt(j));
+            } else {
+                f.serialize(out);
+            }
+        }
+    }
+
+    /**
+     * Adds a tuple to the slotted page in buf, compacting the page first
+     * if its free space is fragmented.  HeapFileEncoder builds slotted
+     * pages with this.
+     *
+     * @return the tuple's slot, or -1 if there is no room for it
+     */
+    static int insert(ByteBuffer buf, int pageSize, TupleDesc td, Tuple t) {
+        int size = encodedSize(td, t);
+        if (!fits(buf, pageSize, size))
+            return -1;
+        int n = slotCount(buf);
+        int slot = firstFreeSlot(buf, n);
+        int slots = Math.max(n, slot + 1);
+        int start = dataStart(buf, pageSize);
+        if (start - directoryEnd(slots) < size)
+            start = compact(buf, pageSize, n);
+        start -= size;
+        ByteBuffer out = buf.duplicate();
+        out.position(start);
+        encode(out, td, t);
+        setSlot(buf, slot, start, size);
+        setHeader(buf, slots, start);
+        return slot;
+    }
+
+    /** @return true if a tuple of size bytes fits, after compaction if need be */
+    private static boolean fits(ByteBuffer buf, int pageSize, int size) {
+        int n = slotCount(buf);
+        int slots = Math.max(n, firstFreeSlot(buf, n) + 1);
+        return freeBytes(buf, pageSize, slots) >= size;
+    }
+
+    /** @return bytes not taken by the header, a directory of slots entries, or tuples */
+    private static int freeBytes(ByteBuffer buf, int pageSize, int slots) {
+        int used = 0;
+        for (int i = 0, n = slotCount(buf); i < n; i++)
+            used += slotLength(buf, i);
+        return pageSize - directoryEnd(slots) - used;
+    }
+
+    /**
+     * Moves the tuples of the first n slots to the end of the page,
+     * without holes between them.
+     *
+     * @return the new start of tuple data
+     */
+    private static int compact(ByteBuffer buf, int pageSize, int n) {
+        byte[] copy = new byte[pageSize];
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(copy, 0, pageSize);
+        ByteBuffer out = buf.duplicate();
+        int end = pageSize;
+        for (int i = 0; i < n; i++) {
+            int off = slotOffset(buf, i);
+            if (off == 0)
+                continue;
+            int len = slotLength(buf, i);
+            end -= len;
+            out.position(end);
+            out.put(copy, off, len);
+            setSlot(buf, i, end, len);
+        }
+        return end;
+    }
+
+    private static int firstFreeSlot(ByteBuffer buf, int n) {
+        int slot = 0;
+        while (slot < n && slotOffset(buf, slot) != 0)
+            slot++;
+        return slot;
+    }
+
+    private static boolean isUsed(ByteBuffer buf, int slot) {
+        return slot >= 0 && slot < slotCount(buf) && slotOffset(buf, slot) != 0;
+    }
+
+    private static int directoryEnd(int slots) {
+        return HEADER_BYTES + slots * SLOT_BYTES;
+    }
+
+    private static int slotCount(ByteBuffer buf) {
+        return buf.getShort(0) & 0xffff;
+    }
+
+    private static int dataStart(ByteBuffer buf, int pageSize) {
+        int start = buf.getShort(2) & 0xffff;
+        return start == 0 ? pageSize : start;
+    }
+
+    private static int slotOffset(ByteBuffer buf, int slot) {
+        return buf.getShort(HEADER_BYTES + slot * SLOT_BYTES) & 0xffff;
+    }
+
+    private static int slotLength(ByteBuffer buf, int slot) {
+        return buf.getShort(HEADER_BYTES + slot * SLOT_BYTES + 2) & 0xffff;
+    }
+
+    private static void setSlot(ByteBuffer buf, int slot, int offset, int length) {
+        buf.putShort(HEADER_BYTES + slot * SLOT_BYTES, (short) offset);
+        buf.putShort(HEADER_BYTES + slot * SLOT_BYTES + 2, (short) length);
+    }
+
+    /** Writes the slot count and data start; a start of 64KB wraps to zero, as on an empty page. */
+    private static void setHeader(ByteBuffer buf, int slots, int start) {
+        buf.putShort(0, (short) slots);
+        buf.putShort(2, (short) start);
+    }
+}
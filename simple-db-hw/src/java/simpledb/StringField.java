@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -9,6 +10,9 @@ public class StringField implements Field {
 
 	private static final long serialVersionUID = 1L;
 
+	/** Zeros to pad strings with. */
+	private static final byte[] PADDING = new byte[Type.STRING_LEN];
+
 	private final String value;
 	private final int maxSize;
 
@@ -66,6 +70,28 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf, in the same format as
+	 * serialize(DataOutputStream), padding it with one bulk put.
+	 */
+	public void serialize(ByteBuffer buf) {
+		write(buf, value, maxSize);
+	}
+
+	/**
+	 * Writes a string of at most maxSize characters into buf as a
+	 * StringField of that size would: its length, the low byte of each
+	 * character, then zeros to maxSize.
+	 */
+	static void write(ByteBuffer buf, String s, int maxSize) {
+		int len = Math.min(s.length(), maxSize);
+		buf.putInt(len);
+		for (int i = 0; i < len; i++)
+			buf.put((byte) s.charAt(i));
+		for (int pad = maxSize - len; pad > 0; pad -= PADDING.length)
+			buf.put(PADDING, 0, Math.min(pad, PADDING.length));
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -41,12 +41,18 @@ public class TupleDesc implements Serializable {
      *        that are included in this TupleDesc
      * */
     public Iterator<TDItem> iterator() {
-        // some code goes here
-        return null;
+        return Arrays.asList(items).iterator();
     }
 
     private static final long serialVersionUID = 1L;
 
+    private final TDItem[] items;
+
+    /** Byte size of a tuple, computed once since TupleDescs are immutable. */
+    private final int size;
+    /** Byte offset of each field within a tuple. */
+    private final int[] offsets;
+
     /**
      * Create a new TupleDesc with typeAr.length fields with fields of the
      * specified types, with associated named fields.
@@ -59,7 +65,18 @@ public class TupleDesc implements Serializable {
      *            be null.
      */
     public TupleDesc(Type[] typeAr, String[] fieldAr) {
-        // some code goes here
+        if (typeAr == null || typeAr.length == 0)
+            throw new IllegalArgumentException("TupleDesc must have at least one field");
+        items = new TDItem[typeAr.length];
+        offsets = new int[typeAr.length];
+        int sz = 0;
+        for (int i = 0; i < typeAr.length; i++) {
+            String name = (fieldAr != null && i < fieldAr.length) ? fieldAr[i] : null;
+            items[i] = new TDItem(typeAr[i], name);
+            offsets[i] = sz;
+            sz += typeAr[i].getLen();
+        }
+        size = sz;
     }
 
     /**
@@ -71,15 +88,14 @@ public class TupleDesc implements Serializable {
      *            TupleDesc. It must contain at least one entry.
      */
     public TupleDesc(Type[] typeAr) {
-        // some code goes here
+        this(typeAr, null);
     }
 
     /**
      * @return the number of fields in this TupleDesc
      */
     public int numFields() {
-        // some code goes here
-        return 0;
+        return items.length;
     }
 
     /**
@@ -92,8 +108,9 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public String getFieldName(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        if (i < 0 || i >= items.length)
+            throw new NoSuchElementException("no field " + i);
+        return items[i].fieldName;
     }
 
     /**
@@ -107,8 +124,9 @@ public class TupleDesc implements Serializable {
      *             if i is not a valid field reference.
      */
     public Type getFieldType(int i) throws NoSuchElementException {
-        // some code goes here
-        return null;
+        if (i < 0 || i >= items.length)
+            throw new NoSuchElementException("no field " + i);
+        return items[i].fieldType;
     }
 
     /**
@@ -121,8 +139,30 @@ public class TupleDesc implements Serializable {
      *             if no field with a matching name is found.
      */
     public int fieldNameToIndex(String name) throws NoSuchElementException {
-        // some code goes here
-        return 0;
+        if (name != null) {
+            for (int i = 0; i < items.length; i++) {
+                if (name.equals(items[i].fieldName))
+                    return i;
+            }
+        }
+        throw new NoSuchElementException("no field named " + name);
+    }
+
+    /**
+     * Gets the byte offset of the ith field within a serialized tuple.
+     * Fields have fixed sizes, so this is the sum of the sizes of the
+     * fields before it.
+     * 
+     * @param i
+     *            The index of the field. It must be a valid index.
+     * @return the offset of the ith field
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= items.length)
+            throw new NoSuchElementException("no field " + i);
+        return offsets[i];
     }
 
     /**
@@ -130,8 +170,7 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        // some code goes here
-        return 0;
+        return size;
     }
 
     /**
@@ -145,8 +184,18 @@ public class TupleDesc implements Serializable {
      * @return the new TupleDesc
      */
     public static TupleDesc merge(TupleDesc td1, TupleDesc td2) {
-        // some code goes here
-        return null;
+        int n = td1.numFields() + td2.numFields();
+        Type[] types = new Type[n];
+        String[] names = new String[n];
+        for (int i = 0; i < td1.numFields(); i++) {
+            types[i] = td1.items[i].fieldType;
+            names[i] = td1.items[i].fieldName;
+        }
+        for (int i = 0; i < td2.numFields(); i++) {
+            types[td1.numFields() + i] = td2.items[i].fieldType;
+            names[td1.numFields() + i] = td2.items[i].fieldName;
+        }
+        return new TupleDesc(types, names);
     }
 
     /**
@@ -161,14 +210,25 @@ public class TupleDesc implements Serializable {
      */
 
     public boolean equals(Object o) {
-        // some code goes here
-        return false;
+        if (this == o)
+            return true;
+        if (!(o instanceof TupleDesc))
+            return false;
+        TupleDesc other = (TupleDesc) o;
+        if (other.items.length != items.length)
+            return false;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i].fieldType != other.items[i].fieldType)
+                return false;
+        }
+        return true;
     }
 
     public int hashCode() {
-        // If you want to use TupleDesc as keys for HashMap, implement this so
-        // that equal objects have equals hashCode() results
-        throw new UnsupportedOperationException("unimplemented");
+        int h = 1;
+        for (TDItem item : items)
+            h = 31 * h + item.fieldType.hashCode();
+        return h;
     }
 
     /**
@@ -179,7 +239,12 @@ public class TupleDesc implements Serializable {
      * @return String describing this descriptor.
      */
     public String toString() {
-        // some code goes here
-        return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.length; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(items[i].fieldType).append("(").append(items[i].fieldName).append(")");
+        }
+        return sb.toString();
     }
 }
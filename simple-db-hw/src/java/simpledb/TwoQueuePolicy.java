@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 2Q replacement (Johnson and Shasha, VLDB '94).  A page seen for the first
+ * time enters a probationary FIFO, A1in, and is evicted from there unless
+ * it is referenced again: a hit while in A1in promotes the page to the main
+ * LRU queue, Am.  The ids of recently evicted probationary pages are also
+ * remembered in a ghost queue, A1out, and a miss on one of those admits the
+ * page straight into Am.
+ * <p>
+ * A single large scan therefore only ever cycles through A1in, which is
+ * held to a quarter of the pool, and cannot push re-referenced pages out
+ * of Am.
+ * <p>
+ * All state is guarded by this object's monitor, including the LRU update
+ * on every hit, so hits serialize here in a way they do not under
+ * {@link ClockPolicy}.
+ *
+ * @Threadsafe
+ */
+class TwoQueuePolicy implements ReplacementPolicy {
+
+    private int kin;
+    private int kout;
+
+    /** Probationary pages, oldest first. */
+    private final LinkedHashMap<PageId, BufferPool.Frame> a1in;
+    /** Re-referenced pages, least recently used first. */
+    private final LinkedHashMap<PageId, BufferPool.Frame> am;
+    /** Ids of pages recently evicted from A1in, oldest first. */
+    private final LinkedHashMap<PageId, Boolean> a1out;
+    /** A1in candidates proposed since the last eviction. */
+    private int probes;
+
+    TwoQueuePolicy(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        this.kout = Math.max(1, numPages / 2);
+        this.a1in = new LinkedHashMap<PageId, BufferPool.Frame>();
+        this.am = new LinkedHashMap<PageId, BufferPool.Frame>(16, 0.75f, true);
+        this.a1out = new LinkedHashMap<PageId, Boolean>() {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<PageId, Boolean> eldest) {
+                return size() > kout;
+            }
+        };
+    }
+
+    public synchronized void setCapacity(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        this.kout = Math.max(1, numPages / 2);
+        Iterator<PageId> it = a1out.keySet().iterator();
+        while (a1out.size() > kout) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public synchronized void admit(BufferPool.Frame f) {
+        if (a1out.remove(f.pid) != null)
+            am.put(f.pid, f);
+        else
+            a1in.put(f.pid, f);
+    }
+
+    public synchronized void access(BufferPool.Frame f) {
+        if (a1in.remove(f.pid, f))
+            am.put(f.pid, f);
+        else
+            am.get(f.pid); // refreshes Am's order
+    }
+
+    public synchronized void remove(BufferPool.Frame f) {
+        probes = 0;
+        if (a1in.remove(f.pid, f))
+            a1out.put(f.pid, Boolean.TRUE);
+        else
+            am.remove(f.pid, f);
+    }
+
+    public synchronized BufferPool.Frame nextVictim() {
+        // once every A1in page has been turned down, fall back to Am
+        boolean fromA1in = probes < a1in.size() && (a1in.size() > kin || am.isEmpty());
+        if (fromA1in) {
+            // rotate the head to the tail in case the pool rejects it
+            probes++;
+            Iterator<BufferPool.Frame> it = a1in.values().iterator();
+            BufferPool.Frame f = it.next();
+            it.remove();
+            a1in.put(f.pid, f);
+            return f;
+        }
+        if (!am.isEmpty()) {
+            BufferPool.Frame f = am.values().iterator().next();
+            am.get(f.pid);
+            return f;
+        }
+        if (!a1in.isEmpty())
+            return a1in.values().iterator().next();
+        return null;
+    }
+}
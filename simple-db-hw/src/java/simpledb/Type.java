@@ -2,6 +2,8 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +26,15 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -32,15 +43,33 @@ public enum Type implements Serializable {
 
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
-            try {
-                int strLen = dis.readInt();
-                byte bs[] = new byte[strLen];
-                dis.read(bs);
-                dis.skipBytes(STRING_LEN-strLen);
-                return new StringField(new String(bs), STRING_LEN);
-            } catch (IOException e) {
-                throw new ParseException("couldn't parse", 0);
-            }
+            return new StringField(readString(dis), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            return new StringField(readString(buf), STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /** The most a value can take; it is stored padded to this in HeapPages. */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            return new VarcharField(readString(dis));
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            return new VarcharField(readString(buf));
         }
     };
     
@@ -51,6 +80,14 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return true if values of this type take only as many bytes as they
+   *   need in a {@link SlottedHeapPage}; getLen() is then their maximum.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -60,4 +97,52 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at its current position.
+   *   On return the position is just past the field.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+    /** Reads a string written as a length and STRING_LEN padded bytes. */
+    private static String readString(DataInputStream dis) throws ParseException {
+        try {
+            int strLen = dis.readInt();
+            byte bs[] = new byte[strLen];
+            dis.read(bs);
+            dis.skipBytes(STRING_LEN-strLen);
+            return new String(bs);
+        } catch (IOException e) {
+            throw new ParseException("couldn't parse", 0);
+        }
+    }
+
+    /** Reads a string written as a length and STRING_LEN padded bytes. */
+    private static String readString(ByteBuffer buf) throws ParseException {
+        int start = buf.position();
+        try {
+            int strLen = buf.getInt();
+            if (strLen < 0 || strLen > STRING_LEN)
+                throw new ParseException("bad string length " + strLen, start);
+            String s;
+            if (buf.hasArray()) {
+                // decode in place rather than copying the bytes out first
+                if (buf.remaining() < strLen)
+                    throw new BufferUnderflowException();
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), strLen);
+            } else {
+                byte bs[] = new byte[strLen];
+                buf.get(bs);
+                s = new String(bs);
+            }
+            buf.position(start + STRING_LEN + 4);
+            return s;
+        } catch (BufferUnderflowException e) {
+            throw new ParseException("couldn't parse", start);
+        }
+    }
+
 }
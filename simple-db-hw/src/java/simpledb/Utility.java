@@ -103,7 +103,8 @@ public class Utility {
     public static HeapFile createEmptyHeapFile(String path, int cols)
         throws IOException {
         File f = new File(path);
-        // touch the file
+        // touch the file; a zone map of an earlier one no longer applies
+        ZoneMap.sidecar(f).delete();
         FileOutputStream fos = new FileOutputStream(f);
         fos.write(new byte[0]);
         fos.close();
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * Instance of Field that stores a string of up to Type.STRING_LEN
+ * characters in a column of type VARCHAR.  In a HeapPage it takes as much
+ * room as a StringField; in a {@link SlottedHeapPage} it takes only its
+ * length and its characters.
+ */
+public class VarcharField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param s
+     *            The value of this field; characters past Type.STRING_LEN
+     *            are dropped.
+     */
+    public VarcharField(String s) {
+        super(s, Type.STRING_LEN);
+    }
+
+    /**
+     * @return the Type for this Field
+     */
+    public Type getType() {
+        return Type.VARCHAR_TYPE;
+    }
+}
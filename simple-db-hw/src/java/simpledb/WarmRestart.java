@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WarmRestart keeps the database's buffer pool from starting cold after a
+ * restart.  While the database runs, the ids of the cached pages are
+ * saved to a small sidecar file every so often, and once more when the
+ * JVM exits; when a catalog is loaded, the pages listed there are read
+ * back into the pool on a background thread.
+ * <p>
+ * The sidecar file is {@value #DEFAULT_FILE} in the catalog's directory,
+ * or the file named by the system property simpledb.BufferPool.warmFile.
+ * Warm restarts are off unless the save interval is set, in seconds,
+ * with simpledb.BufferPool.warmInterval; zero, the default, leaves them
+ * off, and no timer, sidecar file or shutdown hook is created.
+ *
+ * @see BufferPool#saveResidentPages
+ * @see BufferPool#loadResidentPages
+ */
+class WarmRestart {
+
+    /** System property naming the sidecar file. */
+    static final String FILE_PROPERTY = "simpledb.BufferPool.warmFile";
+
+    /** System property giving the interval between saves, in seconds. */
+    static final String INTERVAL_PROPERTY = "simpledb.BufferPool.warmInterval";
+
+    /** Name of the sidecar file in the catalog's directory. */
+    static final String DEFAULT_FILE = "bufferpool.warm";
+
+    private static final int DEFAULT_INTERVAL = 0;
+
+    private static ScheduledExecutorService saver;
+    private static volatile File sidecar;
+
+    /**
+     * Starts warm restarts for a catalog in the given directory: preloads
+     * the pool from its sidecar file, if there is one, and saves the pool's
+     * pages there from now on.  Called by {@link Catalog#loadSchema}; a
+     * later call moves saving to the new file.  Does nothing unless
+     * {@value #INTERVAL_PROPERTY} is positive.
+     */
+    static synchronized void start(File catalogDir) {
+        int interval = Integer.getInteger(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+        if (interval <= 0)
+            return;
+        String name = System.getProperty(FILE_PROPERTY);
+        final File file = name != null ? new File(name) : new File(catalogDir, DEFAULT_FILE);
+        sidecar = file;
+        if (file.exists()) {
+            Thread loader = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        Database.getBufferPool().loadResidentPages(file);
+                    } catch (IOException e) {
+                        // a missing or damaged list only costs a cold start
+                    }
+                }
+            }, "simpledb-warmup");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        if (saver != null)
+            return;
+        saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-warm-save");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        saver.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                save();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                save();
+            }
+        }, "simpledb-warm-save"));
+    }
+
+    /** Saves the current pool's pages to the sidecar file. */
+    static void save() {
+        File file = sidecar;
+        if (file == null)
+            return;
+        try {
+            Database.getBufferPool().saveResidentPages(file);
+        } catch (IOException e) {
+            // try again next time
+        }
+    }
+}
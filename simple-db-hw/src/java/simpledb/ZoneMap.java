@@ -0,0 +1,243 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Per-page synopses of a HeapFile: for each page and each column, the
+ * least and greatest value stored there.  A scan with a Predicate asks
+ * {@link #mayMatch} before fetching a page and skips the pages whose range
+ * excludes the operand.  INT_TYPE columns are summarized exactly; strings
+ * by their first {@value #PREFIX_CHARS} characters, which bound them.
+ * <p>
+ * Bounds only ever widen.  A delete leaves them as they were, since the
+ * transaction may abort and put the tuple back, and an aborted insert
+ * leaves them wider than they need be; either way no page is skipped that
+ * could hold a match.  A page with no tuples has an empty range and is
+ * skipped by every predicate.
+ * <p>
+ * The map is kept on disk in a sidecar named after the data file with
+ * ".zones" appended, saved before each batch of pages is written rather
+ * than after: since bounds only widen, a sidecar ahead of the data file
+ * is still correct.  Its header holds two generation counters, the one
+ * last begun and the one last saved.  An insert the map does not see
+ * begins a generation without saving it, so the sidecar is out of date
+ * while the two differ, and is not loaded.
+ */
+class ZoneMap {
+
+    private static final int MAGIC = 0x5a4f4e45;
+    /** Bytes of header: magic, columns, pages, a spare int and two generations. */
+    private static final int HEADER_BYTES = 32;
+    /** Bytes per page and column: the least and greatest key. */
+    private static final int ENTRY_BYTES = 16;
+    /** Leading characters of a string that its key holds. */
+    static final int PREFIX_CHARS = 4;
+
+    private final int columns;
+    /** Keys of column c on page p are at p * columns + c; guarded by this. */
+    private long[] lo;
+    private long[] hi;
+    private int pages;
+    /** Pages changed since the map was last saved; guarded by this. */
+    private final BitSet dirty = new BitSet();
+    /** Generation of the sidecar this map was loaded from or last saved as; -1 if neither. */
+    private long generation = -1;
+
+    ZoneMap(TupleDesc td) {
+        this.columns = td.numFields();
+        this.lo = new long[16 * columns];
+        this.hi = new long[lo.length];
+    }
+
+    /** @return the sidecar file of a heap file's data file */
+    static File sidecar(File data) {
+        return new File(data.getPath() + ".zones");
+    }
+
+    /**
+     * Returns the key that orders a field among others of its column.
+     * Strings map to their first PREFIX_CHARS characters, so s1 < s2
+     * implies key(s1) <= key(s2), but keys may be equal for unequal strings.
+     */
+    static long key(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        String s = ((StringField) f).getValue();
+        long k = 0;
+        for (int i = 0; i < PREFIX_CHARS; i++)
+            k = (k << 16) | (i < s.length() ? s.charAt(i) : 0);
+        // flip the sign bit so that signed comparison orders characters as unsigned
+        return k ^ Long.MIN_VALUE;
+    }
+
+    /** Makes the map cover pages [0, n), the new ones with empty ranges. */
+    synchronized void cover(int n) {
+        if (n <= pages)
+            return;
+        if (n * columns > lo.length) {
+            int size = Math.max(n * columns, lo.length * 2);
+            lo = Arrays.copyOf(lo, size);
+            hi = Arrays.copyOf(hi, size);
+        }
+        Arrays.fill(lo, pages * columns, n * columns, Long.MAX_VALUE);
+        Arrays.fill(hi, pages * columns, n * columns, Long.MIN_VALUE);
+        dirty.set(pages, n);
+        pages = n;
+    }
+
+    /** Widens the ranges of a page to take in the fields of t. */
+    synchronized void add(int pgNo, Tuple t) {
+        cover(pgNo + 1);
+        int base = pgNo * columns;
+        for (int c = 0; c < columns; c++) {
+            long k = key(t.getField(c));
+            if (k < lo[base + c])
+                lo[base + c] = k;
+            if (k > hi[base + c])
+                hi[base + c] = k;
+        }
+        dirty.set(pgNo);
+    }
+
+    /**
+     * Returns false if no tuple on the page can satisfy p, judging by the
+     * page's range for p's field.  Pages the map does not cover may match.
+     */
+    synchronized boolean mayMatch(int pgNo, Predicate p) {
+        if (pgNo >= pages)
+            return true;
+        int i = pgNo * columns + p.getField();
+        long l = lo[i], h = hi[i];
+        if (l > h)
+            return false;
+        long v = key(p.getOperand());
+        // string keys are prefixes, so only ints can decide strict comparisons
+        boolean exact = p.getOperand() instanceof IntField;
+        switch (p.getOp()) {
+        case EQUALS:
+            return l <= v && v <= h;
+        case GREATER_THAN:
+            return exact ? h > v : h >= v;
+        case GREATER_THAN_OR_EQ:
+            return h >= v;
+        case LESS_THAN:
+            return exact ? l < v : l <= v;
+        case LESS_THAN_OR_EQ:
+            return l <= v;
+        case LIKE:
+            // IntField LIKE is equality; string LIKE is a substring match
+            return !exact || (l <= v && v <= h);
+        case NOT_EQUALS:
+            return !exact || l != h || l != v;
+        }
+        return true;
+    }
+
+    /**
+     * Writes the pages changed since the last save to the sidecar, forces
+     * it, and then writes the header with the next generation as both
+     * begun and saved.  Does nothing if no page has changed.  Call it
+     * before writing pages to the data file, never after.  The header is
+     * not forced: until it is on disk, the old header describes entries
+     * that have only widened.
+     */
+    synchronized void save(File data) throws IOException {
+        if (dirty.isEmpty() && generation >= 0)
+            return;
+        try (FileChannel ch = FileChannel.open(sidecar(data).toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            if (generation < 0)
+                generation = Math.max(readGenerations(ch)[0], 0);
+            ByteBuffer entry = ByteBuffer.allocate(columns * ENTRY_BYTES);
+            for (int p = dirty.nextSetBit(0); p >= 0 && p < pages; p = dirty.nextSetBit(p + 1)) {
+                entry.clear();
+                for (int c = 0; c < columns; c++)
+                    entry.putLong(lo[p * columns + c]).putLong(hi[p * columns + c]);
+                entry.flip();
+                write(ch, entry, HEADER_BYTES + (long) p * columns * ENTRY_BYTES);
+            }
+            ch.force(false);
+            long next = generation + 1;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(columns).putInt(pages).putInt(0).putLong(next).putLong(next);
+            header.clear();
+            write(ch, header, 0);
+            generation = next;
+        }
+        dirty.clear();
+    }
+
+    /**
+     * Marks a heap file's sidecar out of date by beginning a generation
+     * that is never saved, and forces it.  Call it before writing pages
+     * with tuples that no map in memory has seen.
+     */
+    static void invalidate(File data) throws IOException {
+        File f = sidecar(data);
+        if (!f.exists())
+            return;
+        try (FileChannel ch = FileChannel.open(f.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long[] gens = readGenerations(ch);
+            if (gens[0] < 0 || gens[0] != gens[1])
+                return;
+            ByteBuffer begun = ByteBuffer.allocate(8);
+            begun.putLong(0, gens[0] + 1);
+            write(ch, begun, 16);
+            ch.force(false);
+        }
+    }
+
+    /** @return the generations begun and saved in a sidecar's header, or -1s if it has none */
+    private static long[] readGenerations(FileChannel ch) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (header.hasRemaining()) {
+            if (ch.read(header, header.position()) < 0)
+                return new long[] { -1, -1 };
+        }
+        if (header.getInt(0) != MAGIC)
+            return new long[] { -1, -1 };
+        return new long[] { header.getLong(16), header.getLong(24) };
+    }
+
+    private static void write(FileChannel ch, ByteBuffer src, long pos) throws IOException {
+        while (src.hasRemaining())
+            ch.write(src, pos + src.position());
+    }
+
+    /**
+     * Reads a heap file's sidecar.
+     *
+     * @return the map, or null if the sidecar is missing, was written for
+     *   a different schema, or is out of date
+     */
+    static ZoneMap load(File data, TupleDesc td) throws IOException {
+        File f = sidecar(data);
+        if (!f.exists() || f.length() < HEADER_BYTES)
+            return null;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)))) {
+            ZoneMap z = new ZoneMap(td);
+            if (in.readInt() != MAGIC || in.readInt() != z.columns)
+                return null;
+            int pages = in.readInt();
+            in.readInt();
+            long begun = in.readLong(), saved = in.readLong();
+            if (begun != saved
+                    || f.length() < HEADER_BYTES + (long) pages * z.columns * ENTRY_BYTES)
+                return null;
+            z.cover(pages);
+            for (int i = 0; i < pages * z.columns; i++) {
+                z.lo[i] = in.readLong();
+                z.hi[i] = in.readLong();
+            }
+            z.dirty.clear();
+            z.generation = saved;
+            return z;
+        }
+    }
+}
@@ -0,0 +1,638 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferPoolTest extends SimpleDbTestBase {
+    private static final int POOL_PAGES = 5;
+
+    private HeapFile hf;
+    private TransactionId tid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before
+    public void createTable() throws Exception {
+        // 1 int column -> 992 tuples per page; 10 pages
+        hf = SystemTestUtil.createRandomHeapFile(1, 992 * 10, null, null);
+        tid = new TransactionId();
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    /**
+     * Reading more pages than the pool holds must evict clean pages rather
+     * than fail.
+     */
+    @Test
+    public void evictsCleanPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < hf.numPages(); i++) {
+                HeapPageId pid = new HeapPageId(hf.getId(), i);
+                Page p = bp.getPage(tid, pid, Permissions.READ_ONLY);
+                assertEquals(pid, p.getId());
+            }
+        }
+    }
+
+    /**
+     * Under NO STEAL, a pool whose every page is dirty cannot make room.
+     */
+    @Test
+    public void neverEvictsDirtyPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < POOL_PAGES; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_WRITE);
+            p.markDirty(true, tid);
+        }
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected DbException when every page is dirty");
+        } catch (DbException e) {
+            // expected
+        }
+        for (int i = 0; i < POOL_PAGES; i++) {
+            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertEquals(tid, p.isDirty());
+        }
+    }
+
+    /**
+     * Concurrent readers of the same pages must all see the one cached copy.
+     */
+    @Test
+    public void concurrentReadersShareFrames() throws Exception {
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        final Page first = bp.getPage(tid, pid, Permissions.READ_ONLY);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 10000; i++) {
+                            int pg = i % hf.numPages();
+                            Page p = bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_ONLY);
+                            if (pg == 0 && p != first)
+                                throw new AssertionError("page 0 was reloaded");
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        if (error.get() != null)
+            throw new AssertionError(error.get());
+    }
+
+    /**
+     * Under 2Q, pages touched twice must survive a scan of pages touched once.
+     */
+    @Test
+    public void twoQueueResistsScans() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * 30, null, null);
+        BufferPool bp = new BufferPool(POOL_PAGES * 2, new TwoQueuePolicy(POOL_PAGES * 2));
+        Page[] hot = new Page[3];
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < hot.length; i++)
+                hot[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        for (int i = 0; i < big.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+        for (int i = 0; i < hot.length; i++)
+            assertSame(hot[i], bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+    }
+
+    /**
+     * A scan through a ring strategy must only recycle its own frames.
+     */
+    @Test
+    public void ringScanKeepsWorkingSet() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992 * 30, null, null);
+        BufferPool bp = Database.resetBufferPool(10);
+        // an empty pool caches any table that fits
+        assertNull(bp.scanStrategy(10));
+
+        Page[] hot = new Page[8];
+        for (int i = 0; i < hot.length; i++)
+            hot[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        // with the pool mostly full, only tables of up to a quarter of it are
+        assertNull(bp.scanStrategy(2));
+        assertNotNull(bp.scanStrategy(3));
+
+        AccessStrategy ring = bp.scanStrategy(big.numPages());
+        assertNotNull(ring);
+        DbFileIterator it = big.iterator(tid, ring);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * 30, count);
+
+        for (int i = 0; i < hot.length; i++)
+            assertSame(hot[i], bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+    }
+
+    /**
+     * Off-heap pages must keep their contents after their frame is reused.
+     */
+    @Test
+    public void offHeapPagesSurviveEviction() throws Exception {
+        BufferPool bp = new BufferPool(2, new ClockPolicy(2), true);
+        HeapPage first = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        byte[] before = first.getPageData();
+        for (int i = 1; i < hf.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertTrue(Arrays.equals(before, first.getPageData()));
+        assertEquals(0, first.getNumEmptySlots());
+
+        HeapPage reread = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        assertNotSame(first, reread);
+        Iterator<Tuple> a = first.iterator();
+        Iterator<Tuple> b = reread.iterator();
+        while (a.hasNext())
+            assertEquals(a.next().getField(0), b.next().getField(0));
+        assertFalse(b.hasNext());
+    }
+
+    /**
+     * A sequential run must have the following pages read in the background.
+     */
+    @Test
+    public void prefetchesSequentialScans() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        HeapFile counted = new HeapFile(hf.getFile(), hf.getTupleDesc()) {
+            @Override
+            public Page readPage(PageId pid) {
+                reads.incrementAndGet();
+                return super.readPage(pid);
+            }
+        };
+        Database.getCatalog().addTable(counted, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchDepth(4);
+
+        bp.getPage(tid, new HeapPageId(counted.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(counted.getId(), 1), Permissions.READ_ONLY);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (reads.get() < 6 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(6, reads.get());
+
+        bp.setPrefetchDepth(0);
+        for (int i = 2; i < 6; i++)
+            bp.getPage(tid, new HeapPageId(counted.getId(), i), Permissions.READ_ONLY);
+        assertEquals(6, reads.get());
+    }
+
+    /**
+     * Commits must write their pages; aborts must leave none of their changes.
+     */
+    @Test
+    public void commitWritesAndAbortDiscards() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setWriteRate(0);
+        HeapPageId appended = new HeapPageId(hf.getId(), 10);
+
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(7));
+        assertEquals(11, hf.numPages());
+        assertEquals(tid, bp.getPage(tid, appended, Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(tid, false);
+        HeapPage cached = (HeapPage) bp.getPage(tid, appended, Permissions.READ_ONLY);
+        assertNull(cached.isDirty());
+        assertEquals(cached.getNumEmptySlots(), ((HeapPage) hf.readPage(appended)).getNumEmptySlots());
+        int empty = cached.getNumEmptySlots();
+        bp.transactionComplete(tid);
+
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(7));
+        bp.transactionComplete(t2, true);
+        assertEquals(empty - 1, ((HeapPage) hf.readPage(appended)).getNumEmptySlots());
+    }
+
+    /**
+     * A commit that dirtied several pages, in no particular order, writes
+     * each of them once, and the file then holds every change.
+     */
+    @Test
+    public void commitWritesPagesInBatches() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setWriteRate(0);
+        int[] order = { 3, 0, 4, 1 };
+        for (int pg : order) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), pg), Permissions.READ_WRITE);
+            p.deleteTuple(p.iterator().next());
+            p.markDirty(true, tid);
+        }
+        bp.transactionComplete(tid, true);
+        assertEquals(order.length, bp.getStats().getPagesWritten());
+        for (int pg = 0; pg < 5; pg++) {
+            HeapPage onDisk = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), pg));
+            assertEquals(pg == 2 ? 0 : 1, onDisk.getNumEmptySlots());
+        }
+    }
+
+    /**
+     * With the background writer on, a commit leaves its pages to the
+     * writer, which must write them.
+     */
+    @Test
+    public void backgroundWriterWritesCommittedPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setWriteRate(1000);
+        HeapPageId appended = new HeapPageId(hf.getId(), 10);
+        Tuple t = Utility.getHeapTuple(7);
+        bp.insertTuple(tid, hf.getId(), t);
+        bp.transactionComplete(tid, true);
+        TransactionId reader = new TransactionId();
+        assertNull(bp.getPage(reader, appended, Permissions.READ_ONLY).isDirty());
+        bp.transactionComplete(reader);
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (bp.getBackgroundPagesWritten() < 1 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(1, bp.getBackgroundPagesWritten());
+        HeapPage onDisk = (HeapPage) hf.readPage(appended);
+        assertTrue(onDisk.isSlotUsed(t.getRecordId().getTupleNumber()));
+
+        // later changes, still uncommitted, must not be written
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t2, t);
+        Thread.sleep(300);
+        assertEquals(1, bp.getBackgroundPagesWritten());
+        bp.transactionComplete(t2, false);
+        bp.setWriteRate(0);
+    }
+
+    /**
+     * A NO FORCE commit whose pages the writer has not yet written when
+     * the pool is lost must be redone from the log by recovery.
+     */
+    @Test
+    public void recoverRedoesUnwrittenCommits() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        // slow enough that the writer has written nothing before it stops
+        bp.setWriteRate(1);
+        HeapPageId appended = new HeapPageId(hf.getId(), 10);
+        Tuple t = Utility.getHeapTuple(7);
+        bp.insertTuple(tid, hf.getId(), t);
+        bp.transactionComplete(tid, true);
+        bp.setWriteRate(0);
+        assertEquals(0, bp.getBackgroundPagesWritten());
+        int slot = t.getRecordId().getTupleNumber();
+        assertFalse(((HeapPage) hf.readPage(appended)).isSlotUsed(slot));
+
+        // a crash loses the pool; the log still has the commit
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+        assertTrue(((HeapPage) hf.readPage(appended)).isSlotUsed(slot));
+    }
+
+    /**
+     * Once the writer has written every NO FORCE commit the log is emptied,
+     * so a later FORCE commit of the same page is not undone by recovery.
+     */
+    @Test
+    public void recoverKeepsLaterForceCommits() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setWriteRate(1000);
+        HeapPageId appended = new HeapPageId(hf.getId(), 10);
+        Tuple t = Utility.getHeapTuple(7);
+        bp.insertTuple(tid, hf.getId(), t);
+        bp.transactionComplete(tid, true);
+        LogFile log = Database.getLogFile();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!log.isEmpty() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(log.isEmpty());
+
+        bp.setWriteRate(0);
+        int slot = t.getRecordId().getTupleNumber();
+        TransactionId t2 = new TransactionId();
+        bp.deleteTuple(t2, t);
+        bp.transactionComplete(t2, true);
+        assertFalse(((HeapPage) hf.readPage(appended)).isSlotUsed(slot));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+        assertFalse(((HeapPage) hf.readPage(appended)).isSlotUsed(slot));
+    }
+
+    /**
+     * A FORCE commit first writes the pages of logged commits the writer
+     * has not reached, and empties the log.
+     */
+    @Test
+    public void forceCommitEmptiesLog() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        bp.setWriteRate(1);
+        HeapPageId appended = new HeapPageId(hf.getId(), 10);
+        Tuple t = Utility.getHeapTuple(7);
+        bp.insertTuple(tid, hf.getId(), t);
+        bp.transactionComplete(tid, true);
+        bp.setWriteRate(0);
+        assertFalse(Database.getLogFile().isEmpty());
+
+        TransactionId t2 = new TransactionId();
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(8));
+        bp.transactionComplete(t2, true);
+        assertTrue(Database.getLogFile().isEmpty());
+        assertEquals(0, bp.pendingWrites());
+        assertTrue(((HeapPage) hf.readPage(appended)).isSlotUsed(t.getRecordId().getTupleNumber()));
+    }
+
+    /**
+     * The stats snapshot and the JMX bean must count what the pool did.
+     */
+    @Test
+    public void countsPoolActivity() throws Exception {
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES);
+        bp.setWriteRate(0);
+        for (int i = 0; i < POOL_PAGES + 2; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES + 1), Permissions.READ_ONLY);
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(7));
+        bp.transactionComplete(tid);
+
+        BufferPoolStats stats = bp.getStats();
+        // 8 reads, then the insert looks at all 10 pages and at the one it appends
+        assertEquals(8 + 10 + 1, stats.getMisses() + stats.getHits());
+        assertEquals(stats.getMisses(), stats.getPagesRead());
+        assertEquals(stats.getMisses() - POOL_PAGES, stats.getEvictions());
+        assertEquals(Long.valueOf(stats.getPagesRead()), stats.getPagesReadByTable().get(hf.getId()));
+        assertEquals(1, stats.getPagesWritten());
+        assertEquals(stats.getMisses(), stats.getMissLatency().getCount());
+        assertEquals(1, stats.getWriteLatency().getCount());
+        assertEquals(0, stats.getLockWaits().getCount());
+
+        javax.management.MBeanServer server = java.lang.management.ManagementFactory.getPlatformMBeanServer();
+        javax.management.ObjectName name = new javax.management.ObjectName(BufferPoolMXBean.OBJECT_NAME);
+        assertEquals(stats.getMisses(), server.getAttribute(name, "Misses"));
+        assertEquals(POOL_PAGES, server.getAttribute(name, "Capacity"));
+    }
+
+    /**
+     * Growing a pool must keep its pages; shrinking must evict down to the
+     * new size, and the pool must keep working at either size.
+     */
+    @Test
+    public void resizesWhileInUse() throws Exception {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            BufferPool bp = new BufferPool(POOL_PAGES, new ClockPolicy(POOL_PAGES), offHeap);
+            Page[] cached = new Page[POOL_PAGES];
+            for (int i = 0; i < POOL_PAGES; i++)
+                cached[i] = bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+
+            bp.resize(hf.numPages());
+            assertEquals(hf.numPages(), bp.getNumPages());
+            for (int i = 0; i < hf.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            for (int i = 0; i < POOL_PAGES; i++)
+                assertSame(cached[i], bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+            assertEquals(0, bp.getStats().getEvictions());
+
+            bp.resize(3);
+            assertEquals(3, bp.getStats().getResidentPages());
+            assertEquals(hf.numPages() - 3, bp.getStats().getEvictions());
+            for (int i = 0; i < hf.numPages(); i++) {
+                HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertEquals(0, p.getNumEmptySlots());
+            }
+            assertEquals(3, bp.getStats().getResidentPages());
+        }
+    }
+
+    /**
+     * Tables with different page sizes share the pool's byte budget: a
+     * large page is charged for all its bytes, and reading either table
+     * never takes the pool over budget.
+     */
+    @Test
+    public void chargesPagesBySize() throws Exception {
+        int bigPageSize = 2 * BufferPool.getPageSize();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 992 * 10; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i)));
+        java.io.File f = java.io.File.createTempFile("table", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, bigPageSize, 1);
+        HeapFile big = new HeapFile(f, Utility.getTupleDesc(1), bigPageSize);
+        Database.getCatalog().addTable(big, SystemTestUtil.getUUID());
+        assertEquals(bigPageSize, big.getPageSize());
+
+        BufferPool bp = Database.getBufferPool();
+        long budget = bp.getBudgetBytes();
+        assertEquals((long) POOL_PAGES * BufferPool.getPageSize(), budget);
+        int seen = 0;
+        for (int i = 0; i < big.numPages(); i++) {
+            HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY);
+            for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next())
+                seen++;
+            assertTrue(bp.getStats().getResidentBytes() <= budget);
+        }
+        assertEquals(992 * 10, seen);
+        // two big pages fit in five small ones, and nothing else is cached
+        assertEquals(2, bp.getStats().getResidentPages());
+        assertEquals(2L * bigPageSize, bp.getStats().getResidentBytes());
+
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.getStats().getResidentBytes() <= budget);
+        }
+        assertEquals(POOL_PAGES, bp.getStats().getResidentPages());
+        assertEquals(budget, bp.getStats().getResidentBytes());
+    }
+
+    /**
+     * Pinned pages stay cached however many others are read, and a pool
+     * whose every page is pinned cannot make room until one is unpinned.
+     */
+    @Test
+    public void neverEvictsPinnedPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        PinnedPage first = bp.pinPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        for (int round = 0; round < 3; round++)
+            for (int i = 1; i < hf.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertSame(first.getPage(), bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY));
+
+        List<PinnedPage> pinned = new ArrayList<PinnedPage>();
+        pinned.add(first);
+        for (int i = 1; i < POOL_PAGES; i++)
+            pinned.add(bp.pinPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // every page is pinned
+        }
+
+        first.close();
+        first.close();
+        bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+        for (int i = 1; i < POOL_PAGES; i++)
+            assertSame(pinned.get(i).getPage(),
+                    bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY));
+        for (PinnedPage pp : pinned)
+            pp.close();
+    }
+
+    /**
+     * Pins a transaction never closed, as an iterator abandoned without
+     * close() leaves them, are released when the transaction completes.
+     */
+    @Test
+    public void transactionCompleteReleasesPins() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.pinPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        try {
+            bp.getPage(tid, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // every page is pinned
+        }
+
+        bp.transactionComplete(tid);
+        TransactionId other = new TransactionId();
+        bp.getPage(other, new HeapPageId(hf.getId(), POOL_PAGES), Permissions.READ_ONLY);
+        bp.transactionComplete(other);
+    }
+
+    /**
+     * A new pool loaded from a saved list of pages has them cached, and
+     * one too small for all of them takes the hottest.
+     */
+    @Test
+    public void reloadsSavedPages() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        for (int n = 0; n < 3; n++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        java.io.File saved = java.io.File.createTempFile("pool", ".warm");
+        saved.deleteOnExit();
+        assertEquals(POOL_PAGES, bp.saveResidentPages(saved));
+
+        bp = Database.resetBufferPool(POOL_PAGES);
+        assertEquals(POOL_PAGES, bp.loadResidentPages(saved));
+        assertEquals(POOL_PAGES, bp.getStats().getResidentPages());
+        for (int i = 0; i < POOL_PAGES; i++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(0, bp.getStats().getMisses());
+
+        bp = Database.resetBufferPool(1);
+        assertEquals(1, bp.loadResidentPages(saved));
+        bp.getPage(tid, new HeapPageId(hf.getId(), 2), Permissions.READ_ONLY);
+        assertEquals(0, bp.getStats().getMisses());
+    }
+
+    /**
+     * A partition's minimum keeps a small table cached through scans of a
+     * big one, and a partition's maximum keeps the big one from taking
+     * more than its share.
+     */
+    @Test
+    public void partitionsKeepTheirQuotas() throws Exception {
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        Catalog catalog = Database.getCatalog();
+        int pageSize = BufferPool.getPageSize();
+        PoolPartition hot = catalog.definePartition("hot", 2 * pageSize, 2 * pageSize);
+        PoolPartition scans = catalog.definePartition("scans", 0, 2 * pageSize);
+        catalog.setTablePartition(catalog.getTableName(small.getId()), "hot");
+        BufferPool bp = Database.getBufferPool();
+
+        Page[] cached = new Page[2];
+        for (int i = 0; i < 2; i++)
+            cached[i] = bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY);
+        for (int round = 0; round < 2; round++)
+            for (int i = 0; i < hf.numPages(); i++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(2 * pageSize, bp.getResidentBytes(hot));
+        for (int i = 0; i < 2; i++)
+            assertSame(cached[i], bp.getPage(tid, new HeapPageId(small.getId(), i), Permissions.READ_ONLY));
+
+        catalog.setTablePartition(catalog.getTableName(hf.getId()), "scans");
+        Database.resetBufferPool(POOL_PAGES);
+        bp = Database.getBufferPool();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.getResidentBytes(scans) <= 2 * pageSize);
+        }
+        assertEquals(2, bp.getStats().getResidentPages());
+
+        // quotas are in bytes, so the same partition holds one page twice the size
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 992 * 6; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i)));
+        java.io.File f = java.io.File.createTempFile("large", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, 2 * pageSize, 1);
+        HeapFile large = new HeapFile(f, Utility.getTupleDesc(1), 2 * pageSize);
+        catalog.addTable(large, SystemTestUtil.getUUID());
+        catalog.setTablePartition(catalog.getTableName(large.getId()), "scans");
+        bp = Database.resetBufferPool(POOL_PAGES);
+        for (int i = 0; i < large.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(large.getId(), i), Permissions.READ_ONLY);
+            assertEquals(2 * pageSize, bp.getResidentBytes(scans));
+        }
+        assertEquals(1, bp.getStats().getResidentPages());
+    }
+
+    /**
+     * With the compressed tier on, pages evicted from the pool come back
+     * from the tier, intact, rather than from disk.
+     */
+    @Test
+    public void missesReadFromCompressedTier() throws Exception {
+        for (boolean offHeap : new boolean[] { false, true }) {
+            BufferPool bp = new BufferPool(POOL_PAGES, new ClockPolicy(POOL_PAGES), offHeap);
+            bp.setCompressedCacheBytes(1 << 20);
+            int[] empty = new int[hf.numPages()];
+            for (int i = 0; i < hf.numPages(); i++)
+                empty[i] = ((HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY)).getNumEmptySlots();
+            BufferPoolStats before = bp.getStats();
+            assertEquals(hf.numPages() - POOL_PAGES, before.getCompressedPages());
+            assertTrue(before.getCompressedBytes() < (long) before.getCompressedPages() * BufferPool.getPageSize());
+
+            for (int i = 0; i < hf.numPages(); i++) {
+                HeapPage p = (HeapPage) bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+                assertEquals(empty[i], p.getNumEmptySlots());
+                int n = 0;
+                for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next())
+                    n++;
+                assertEquals(992 - empty[i], n);
+            }
+            BufferPoolStats after = bp.getStats();
+            assertEquals(before.getPagesRead(), after.getPagesRead());
+            assertEquals(hf.numPages(), after.getCompressedHits());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolTest.class);
+    }
+}
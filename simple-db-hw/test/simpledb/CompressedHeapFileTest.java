@@ -0,0 +1,137 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("compressed", ".dat");
+        f.deleteOnExit();
+        CompressedHeapFile.mapFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.compress() and readPage()
+     */
+    @Test
+    public void readsCompressedCopy() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        CompressedHeapFile hf = CompressedHeapFile.compress(plain, tempFile());
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        assertEquals(plain.numPages(), hf.numPages());
+        long stored = hf.getFile().length() + CompressedHeapFile.mapFile(hf.getFile()).length();
+        assertTrue(stored < plain.getFile().length());
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    /**
+     * Unit test for CompressedHeapFile.writePage(), through inserts that
+     * rewrite pages larger than they were
+     */
+    @Test
+    public void keepsInsertedTuples() throws Exception {
+        File f = tempFile();
+        TupleDesc td = Utility.getTupleDesc(2);
+        CompressedHeapFile hf = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(0, hf.numPages());
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random r = new Random(1);
+        for (int round = 0; round < 3; round++) {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < 300; i++) {
+                Tuple t = new Tuple(td);
+                int a = r.nextInt(), b = r.nextInt();
+                t.setField(0, new IntField(a));
+                t.setField(1, new IntField(b));
+                Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+                tuples.add(new ArrayList<Integer>(Arrays.asList(a, b)));
+            }
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        assertEquals(2, hf.numPages());
+
+        // a fresh file object reads the map back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(f, td);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(2, reopened.numPages());
+        SystemTestUtil.matchTuples(reopened, tuples);
+    }
+
+    /**
+     * Rewriting a page leaves its old image where the old map points, so a
+     * crash before the new map is written reads the page as it was.
+     */
+    @Test
+    public void rewritesToFreshSpace() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 300, null, tuples);
+        File f = tempFile();
+        CompressedHeapFile hf = CompressedHeapFile.compress(plain, f);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        File map = CompressedHeapFile.mapFile(f);
+        byte[] oldMap = java.nio.file.Files.readAllBytes(map.toPath());
+
+        // an emptier page compresses smaller, so would have fit in place
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        long length = f.length();
+
+        java.nio.file.Files.write(map.toPath(), oldMap);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile crashed = new CompressedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(crashed, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(crashed, tuples);
+
+        // the space the lost rewrite took is free again, and taken by the same rewrite
+        tid = new TransactionId();
+        it = crashed.iterator(tid);
+        it.open();
+        first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(length, f.length());
+    }
+
+    /**
+     * A data file with pages but no map is not read as an empty table.
+     */
+    @Test
+    public void rejectsFileWithoutMap() throws Exception {
+        HeapFile plain = SystemTestUtil.createRandomHeapFile(2, 300, null, null);
+        CompressedHeapFile hf = new CompressedHeapFile(plain.getFile(), plain.getTupleDesc());
+        try {
+            hf.numPages();
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException e) {
+            // no map
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FieldTest extends SimpleDbTestBase {
+
+    /** @return the bytes f.serialize(DataOutputStream) writes */
+    private static byte[] streamBytes(Field f) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(out);
+        f.serialize(dos);
+        dos.flush();
+        return out.toByteArray();
+    }
+
+    /** @return the bytes f.serialize(ByteBuffer) writes */
+    private static byte[] bufferBytes(Field f) {
+        ByteBuffer buf = ByteBuffer.allocate(f.getType().getLen());
+        f.serialize(buf);
+        assertFalse(buf.hasRemaining());
+        return buf.array();
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * Unit test for Field.serialize(ByteBuffer): it writes the same bytes
+     * as serialize(DataOutputStream) for ints and for strings short, as
+     * long as they may be, and too long.
+     */
+    @Test public void serializesAsStreams() throws Exception {
+        for (int v : new int[] { 0, -1, 37, Integer.MIN_VALUE, Integer.MAX_VALUE })
+            assertArrayEquals(streamBytes(new IntField(v)), bufferBytes(new IntField(v)));
+
+        String[] strings = { "", "abc", repeat('x', Type.STRING_LEN), repeat('y', Type.STRING_LEN + 10) };
+        for (String s : strings) {
+            StringField f = new StringField(s, Type.STRING_LEN);
+            assertArrayEquals(streamBytes(f), bufferBytes(f));
+        }
+
+        // HeapFileEncoder writes strings too long for their field truncated
+        ByteBuffer buf = ByteBuffer.allocate(Type.STRING_TYPE.getLen());
+        StringField.write(buf, strings[3], Type.STRING_LEN);
+        assertArrayEquals(streamBytes(new StringField(strings[3], Type.STRING_LEN)), buf.array());
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): a page it writes holds the
+     * header and the stream-serialized tuples, and reads back as them.
+     */
+    @Test public void encodesPages() throws Exception {
+        Type[] types = { Type.INT_TYPE, Type.STRING_TYPE };
+        String[] strings = { "", "abc", repeat('x', Type.STRING_LEN), repeat('y', Type.STRING_LEN + 10) };
+        File text = File.createTempFile("fields", ".txt");
+        text.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < strings.length; i++)
+                out.println((i - 1) + "," + strings[i]);
+        }
+        File dat = File.createTempFile("fields", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(text, dat, BufferPool.getPageSize(), 2, types, ',');
+        byte[] page = TestUtil.readFileBytes(dat.getAbsolutePath());
+        assertEquals(BufferPool.getPageSize(), page.length);
+
+        TupleDesc td = new TupleDesc(types);
+        int slots = (page.length * 8) / (td.getSize() * 8 + 1);
+        int header = (slots + 7) / 8;
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write((1 << strings.length) - 1);
+        expected.write(new byte[header - 1]);
+        for (int i = 0; i < strings.length; i++) {
+            expected.write(streamBytes(new IntField(i - 1)));
+            expected.write(streamBytes(new StringField(strings[i], Type.STRING_LEN)));
+        }
+        expected.write(new byte[page.length - expected.size()]);
+        assertArrayEquals(expected.toByteArray(), page);
+
+        HeapFile hf = new HeapFile(dat, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        HeapPage hp = new HeapPage(new HeapPageId(hf.getId(), 0), page);
+        Iterator<Tuple> it = hp.iterator();
+        for (int i = 0; i < strings.length; i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i - 1), t.getField(0));
+            assertEquals(new StringField(strings[i], Type.STRING_LEN), t.getField(1));
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FieldTest.class);
+    }
+}
@@ -13,6 +13,7 @@ import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 public class HeapPageReadTest extends SimpleDbTestBase {
@@ -120,6 +121,71 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int i = 0; i < 20; ++i) {
+            assertEquals(new IntField(EXAMPLE_VALUES[i][0]), page.getField(i, 0));
+            assertEquals(new IntField(EXAMPLE_VALUES[i][1]), page.getField(i, 1));
+        }
+        try {
+            page.getField(20, 0);
+            fail("read a field of an empty slot");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Unit test for finding used and free slots in HeapPage
+     */
+    @Test public void findsSlots() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            tuples.add(it.next());
+        page.deleteTuple(tuples.get(3));
+        page.deleteTuple(tuples.get(17));
+        assertEquals(486, page.getNumEmptySlots());
+
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); count++) {
+            int slot = it.next().getRecordId().getTupleNumber();
+            assertTrue(slot != 3 && slot != 17);
+        }
+        assertEquals(18, count);
+
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(2));
+        page.insertTuple(t);
+        assertEquals(3, t.getRecordId().getTupleNumber());
+        while (page.getNumEmptySlots() > 0)
+            page.insertTuple(t);
+        assertTrue(page.isSlotUsed(503));
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage() and setBeforeImage()
+     */
+    @Test public void beforeImageTracksFirstChange() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertTrue(Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+
+        page.deleteTuple(page.iterator().next());
+        page.deleteTuple(page.iterator().next());
+        HeapPage before = page.getBeforeImage();
+        assertTrue(Arrays.equals(EXAMPLE_DATA, before.getPageData()));
+        assertEquals(484, before.getNumEmptySlots());
+        assertEquals(486, page.getNumEmptySlots());
+
+        page.setBeforeImage();
+        assertTrue(Arrays.equals(page.getPageData(), page.getBeforeImage().getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
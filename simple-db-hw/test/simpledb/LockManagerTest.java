@@ -0,0 +1,323 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LockManagerTest {
+    private LockManager locks;
+    private PageId p0;
+    private TransactionId t1;
+    private TransactionId t2;
+
+    @Before
+    public void setUp() {
+        locks = new LockManager();
+        p0 = new HeapPageId(1, 0);
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+    }
+
+    /** Runs an acquire on another thread, recording any exception it throws. */
+    private Thread acquireAsync(final TransactionId tid, final PageId pid,
+            final boolean exclusive, final AtomicReference<Throwable> error) {
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    locks.acquire(tid, pid, exclusive);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        t.start();
+        return t;
+    }
+
+    /** Waits until a thread has parked or finished. */
+    private static void awaitBlocked(Thread t) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (t.getState() != Thread.State.WAITING && t.isAlive()
+                && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+    }
+
+    @Test
+    public void sharedLocksAreCompatible() throws Exception {
+        locks.acquire(t1, p0, false);
+        locks.acquire(t2, p0, false);
+        assertTrue(locks.holdsLock(t1, p0));
+        assertTrue(locks.holdsLock(t2, p0));
+    }
+
+    @Test
+    public void exclusiveWaitsForRelease() throws Exception {
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        locks.acquire(t1, p0, false);
+        Thread waiter = acquireAsync(t2, p0, true, error);
+        awaitBlocked(waiter);
+        assertTrue(waiter.isAlive());
+        assertFalse(locks.holdsLock(t2, p0));
+
+        locks.releaseAll(t1);
+        waiter.join(10000);
+        assertFalse(waiter.isAlive());
+        assertNull(error.get());
+        assertTrue(locks.holdsLock(t2, p0));
+        assertFalse(locks.holdsLock(t1, p0));
+    }
+
+    @Test
+    public void upgradesSoleSharedHolder() throws Exception {
+        locks.acquire(t1, p0, false);
+        locks.acquire(t1, p0, true);
+        assertTrue(locks.holdsLock(t1, p0));
+
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread reader = acquireAsync(t2, p0, false, error);
+        awaitBlocked(reader);
+        assertTrue(reader.isAlive());
+        locks.release(t1, p0);
+        reader.join(10000);
+        assertTrue(locks.holdsLock(t2, p0));
+    }
+
+    /**
+     * Queued requests are granted in arrival order, and a reader arriving
+     * behind a queued writer waits even though it is compatible with the
+     * current holder.
+     */
+    @Test
+    public void grantsInArrivalOrder() throws Exception {
+        final List<TransactionId> order = Collections.synchronizedList(new ArrayList<TransactionId>());
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        locks.acquire(t1, p0, false);
+
+        final TransactionId writer = new TransactionId();
+        final TransactionId reader = new TransactionId();
+        Thread w = new Thread() {
+            public void run() {
+                try {
+                    locks.acquire(writer, p0, true);
+                    order.add(writer);
+                    locks.releaseAll(writer);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        w.start();
+        awaitBlocked(w);
+        Thread r = new Thread() {
+            public void run() {
+                try {
+                    locks.acquire(reader, p0, false);
+                    order.add(reader);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }
+        };
+        r.start();
+        awaitBlocked(r);
+        assertTrue(r.isAlive());
+
+        locks.releaseAll(t1);
+        w.join(10000);
+        r.join(10000);
+        assertNull(error.get());
+        assertEquals(2, order.size());
+        assertEquals(writer, order.get(0));
+        assertEquals(reader, order.get(1));
+    }
+
+    /**
+     * A transaction that locks more pages of a table than the threshold
+     * trades them for one table lock, which covers the rest of the table
+     * and keeps writers of any of its pages out.
+     */
+    @Test
+    public void escalatesToTableLock() throws Exception {
+        locks = new LockManager(3);
+        PageId other = new HeapPageId(2, 0);
+        locks.acquire(t1, other, false);
+        for (int i = 0; i < 4; i++)
+            locks.acquire(t1, new HeapPageId(1, i), false);
+        assertEquals(LockManager.S, locks.tableLockMode(t1, 1));
+        assertEquals(LockManager.IS, locks.tableLockMode(t1, 2));
+        assertEquals(1, locks.escalations.sum());
+        assertTrue(locks.holdsLock(t1, new HeapPageId(1, 100)));
+
+        // readers of the table are fine, a writer waits for the table lock
+        locks.acquire(t2, new HeapPageId(1, 100), false);
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        TransactionId t3 = new TransactionId();
+        Thread writer = acquireAsync(t3, new HeapPageId(1, 50), true, error);
+        awaitBlocked(writer);
+        assertTrue(writer.isAlive());
+        locks.releaseAll(t1);
+        locks.releaseAll(t2);
+        writer.join(10000);
+        assertNull(error.get());
+        assertTrue(locks.holdsLock(t3, new HeapPageId(1, 50)));
+        assertEquals(LockManager.IX, locks.tableLockMode(t3, 1));
+    }
+
+    /**
+     * Escalation never waits: while another transaction writes the table,
+     * a reader keeps taking page locks.
+     */
+    @Test
+    public void keepsPageLocksWhenEscalationWouldWait() throws Exception {
+        locks = new LockManager(2);
+        locks.acquire(t2, new HeapPageId(1, 9), true);
+        for (int i = 0; i < 5; i++)
+            locks.acquire(t1, new HeapPageId(1, i), false);
+        assertEquals(LockManager.IS, locks.tableLockMode(t1, 1));
+        assertEquals(0, locks.escalations.sum());
+        assertFalse(locks.holdsLock(t1, new HeapPageId(1, 9)));
+
+        locks.releaseAll(t2);
+        locks.acquire(t1, new HeapPageId(1, 5), false);
+        assertEquals(LockManager.S, locks.tableLockMode(t1, 1));
+    }
+
+    /**
+     * Escalation does not pass a request queued for the table lock, even
+     * one it is compatible with the holders of.
+     */
+    @Test
+    public void escalationWaitsItsTurn() throws Exception {
+        locks = new LockManager(2);
+        locks.acquire(t1, new HeapPageId(1, 0), false);
+        locks.acquire(t1, new HeapPageId(1, 1), false);
+        for (int i = 2; i < 5; i++)
+            locks.acquire(t2, new HeapPageId(1, i), false);
+        assertEquals(LockManager.S, locks.tableLockMode(t2, 1));
+
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        TransactionId t3 = new TransactionId();
+        Thread writer = acquireAsync(t3, new HeapPageId(1, 9), true, error);
+        awaitBlocked(writer);
+        locks.acquire(t1, new HeapPageId(1, 5), false);
+        assertEquals(LockManager.IS, locks.tableLockMode(t1, 1));
+        assertEquals(1, locks.escalations.sum());
+
+        locks.releaseAll(t2);
+        writer.join(10000);
+        assertNull(error.get());
+        assertTrue(locks.holdsLock(t3, new HeapPageId(1, 9)));
+    }
+
+    /**
+     * A blocked request does not wait for holders it is compatible with,
+     * so no deadlock is found through them.
+     */
+    @Test
+    public void ignoresCompatibleHolders() throws Exception {
+        locks = new LockManager(1);
+        final TransactionId t3 = new TransactionId();
+        PageId other = new HeapPageId(2, 0);
+        // t1 holds table 1 in S, t2 in IS, and t3 writes a page of table 2
+        locks.acquire(t1, new HeapPageId(1, 0), false);
+        locks.acquire(t1, new HeapPageId(1, 1), false);
+        locks.acquire(t2, new HeapPageId(1, 5), false);
+        locks.acquire(t3, other, true);
+
+        // t3 waits for t1's S, not t2's IS; t2 then waits for t3
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread writer = acquireAsync(t3, new HeapPageId(1, 7), true, error);
+        awaitBlocked(writer);
+        Thread reader = acquireAsync(t2, other, false, error);
+        awaitBlocked(reader);
+        assertTrue(writer.isAlive());
+        assertTrue(reader.isAlive());
+        assertEquals(0, locks.deadlocks.sum());
+
+        locks.releaseAll(t1);
+        writer.join(10000);
+        assertFalse(writer.isAlive());
+        locks.releaseAll(t3);
+        reader.join(10000);
+        assertNull(error.get());
+        assertTrue(locks.holdsLock(t2, other));
+    }
+
+    /**
+     * Two transactions each waiting for the other's page must be broken up
+     * at once, by aborting the one that has updated fewer pages.
+     */
+    @Test
+    public void abortsCheapestTransactionInDeadlock() throws Exception {
+        PageId p1 = new HeapPageId(1, 1);
+        locks.acquire(t1, p0, true);
+        locks.acquire(t2, p1, true);
+        locks.noteUpdate(t1);
+        locks.noteUpdate(t1);
+        locks.noteUpdate(t2);
+
+        // t1 closes the cycle, but t2 has done less work
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread blocked = new Thread() {
+            public void run() {
+                try {
+                    locks.acquire(t2, p0, false);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                    // as BufferPool.transactionComplete does for an abort
+                    locks.releaseAll(t2);
+                }
+            }
+        };
+        blocked.start();
+        awaitBlocked(blocked);
+        long start = System.nanoTime();
+        locks.acquire(t1, p1, false);
+        blocked.join(10000);
+        assertTrue((System.nanoTime() - start) / 1000000 < 1000);
+        assertTrue(error.get() instanceof TransactionAbortedException);
+        assertTrue(locks.holdsLock(t1, p1));
+        assertFalse(locks.holdsLock(t2, p0));
+    }
+
+    /**
+     * Two shared holders that both try to upgrade deadlock; one must abort
+     * and, once it releases its lock, the other must get its upgrade.
+     */
+    @Test
+    public void breaksUpgradeDeadlock() throws Exception {
+        locks.acquire(t1, p0, false);
+        locks.acquire(t2, p0, false);
+
+        AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread first = acquireAsync(t1, p0, true, error);
+        awaitBlocked(first);
+        try {
+            // t2 is younger and neither has updated anything
+            locks.acquire(t2, p0, true);
+            fail("expected t2 to be aborted");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertTrue(first.isAlive());
+        locks.releaseAll(t2);
+        first.join(10000);
+        assertFalse(first.isAlive());
+        assertNull(error.get());
+        assertTrue(locks.holdsLock(t1, p0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 1000;
+    private static final int COLUMNS = 3;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile hf;
+
+    /**
+     * Writes ROWS tuples of COLUMNS ints with HeapFileEncoder.convertPax
+     * and opens them as a PAX HeapFile.
+     */
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        try (PrintWriter out = new PrintWriter(new FileWriter(text))) {
+            for (int i = 0; i < ROWS; i++) {
+                tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i, i * 7)));
+                out.println(i + "," + (-i) + "," + (i * 7));
+            }
+        }
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecar(f).deleteOnExit();
+        Type[] types = Utility.getTypes(COLUMNS);
+        HeapFileEncoder.convertPax(text, f, BufferPool.getPageSize(), COLUMNS, types, ',');
+        hf = new HeapFile(f, Utility.getTupleDesc(COLUMNS), 0, HeapFile.Layout.PAX);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for PaxHeapPage.fieldPosition(): each column's values are
+     * stored together, and tuples and single fields decode from them.
+     */
+    @Test
+    public void storesColumnsTogether() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertTrue(page instanceof PaxHeapPage);
+        int slots = page.getNumEmptySlots() + countTuples(page);
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        // the second column of slots 0, 1 and 2 sits after the whole first column
+        for (int s = 0; s < 3; s++) {
+            assertEquals(s, data.getInt(header + s * 4));
+            assertEquals(-s, data.getInt(header + slots * 4 + s * 4));
+            assertEquals(new IntField(s * 7), page.getField(s, 2));
+        }
+    }
+
+    private static int countTuples(HeapPage page) {
+        int n = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next())
+            n++;
+        return n;
+    }
+
+    /**
+     * Unit test for inserts, deletes and predicate scans of a PAX HeapFile
+     */
+    @Test
+    public void modifiesAndFilters() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] { 5000, 6000, 7000 });
+        bp.insertTuple(tid, hf.getId(), t);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(5000, 6000, 7000)));
+
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        bp.deleteTuple(tid, first);
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        bp.transactionComplete(tid);
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> row : tuples) {
+            if (row.get(2) > 6000)
+                expected.add(row);
+        }
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t",
+                new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(6000))), expected);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, -1);
+        this.td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new VarcharField(s));
+        return t;
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple() and iterator()
+     */
+    @Test public void packsShortStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, "code" + n)))
+            page.insertTuple(tuple(n, "code" + n++));
+
+        // the same tuples padded to STRING_LEN fit 29 to a page
+        assertTrue(n > 8 * 29);
+        assertFalse(page.isSlotUsed(n));
+
+        HeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        int i = 0;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new VarcharField("code" + i), t.getField(1));
+            assertEquals(Type.VARCHAR_TYPE, t.getField(1).getType());
+        }
+        assertEquals(n, i);
+        assertEquals(new VarcharField("code7"), copy.getField(7, 1));
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.deleteTuple() and reuse of freed space
+     */
+    @Test public void reusesDeletedSpace() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        while (page.hasRoomFor(tuple(0, "a long value that fills the page"))) {
+            Tuple t = tuple(tuples.size(), "a long value that fills the page");
+            page.insertTuple(t);
+            tuples.add(t);
+        }
+        page.setBeforeImage();
+        for (int i = 0; i < tuples.size(); i += 2)
+            page.deleteTuple(tuples.get(i));
+
+        // fits only once the holes left by the deletes are compacted
+        Tuple big = tuple(-1, "a value that needs the space of two of the others, and then some more");
+        page.insertTuple(big);
+        assertEquals(0, big.getRecordId().getTupleNumber());
+
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); count++) {
+            Tuple t = it.next();
+            int slot = t.getRecordId().getTupleNumber();
+            assertTrue(slot == 0 || slot % 2 == 1);
+            if (slot > 0)
+                assertEquals(new IntField(slot), t.getField(0));
+        }
+        assertEquals(1 + tuples.size() / 2, count);
+
+        int before = 0;
+        for (Iterator<Tuple> it = page.getBeforeImage().iterator(); it.hasNext(); it.next())
+            before++;
+        assertEquals(tuples.size(), before);
+    }
+
+    /**
+     * Unit test for SlottedHeapPage.insertTuple(): a string longer than
+     * Type.STRING_LEN is refused rather than stored cut short.
+     */
+    @Test public void rejectsLongStrings() throws Exception {
+        SlottedHeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        char[] chars = new char[Type.STRING_LEN + 1];
+        Arrays.fill(chars, 'x');
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(0));
+        t.setField(1, new StringField(new String(chars), chars.length));
+        try {
+            page.insertTuple(t);
+            fail("expected DbException for a string longer than STRING_LEN");
+        } catch (DbException e) {
+            // expected
+        }
+        assertFalse(page.isSlotUsed(0));
+        assertFalse(page.iterator().hasNext());
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convertSlotted() and reading slotted
+     * pages through a HeapFile
+     */
+    @Test public void readsEncodedFile() throws Exception {
+        File text = File.createTempFile("slotted", ".txt");
+        text.deleteOnExit();
+        PrintWriter w = new PrintWriter(text);
+        for (int i = 0; i < 1000; i++)
+            w.println(i + ",name" + i);
+        w.close();
+        File data = File.createTempFile("slotted", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convertSlotted(text, data, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, ',');
+
+        // 1000 tuples padded to STRING_LEN would take 35 pages
+        HeapFile hf = new HeapFile(data, td, 0, true);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(5, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        for (; it.hasNext(); i++) {
+            Tuple t = it.next();
+            assertEquals(new IntField(i), t.getField(0));
+            assertEquals(new VarcharField("name" + i), t.getField(1));
+        }
+        it.close();
+        assertEquals(1000, i);
+
+        hf.insertTuple(tid, tuple(1000, "name1000"));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(5, hf.numPages());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,155 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private File f;
+    private TupleDesc td;
+
+    /**
+     * Writes a table whose first column counts up, like a timestamp, so
+     * that each page holds a narrow range of it.
+     */
+    @Before public void setUp() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, ROWS - i)));
+        f = File.createTempFile("zones", ".dat");
+        f.deleteOnExit();
+        ZoneMap.sidecar(f).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        td = Utility.getTupleDesc(2);
+    }
+
+    private HeapFile open() {
+        HeapFile hf = new HeapFile(f, td);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * Scans hf with p from a cold pool, checking that the scan locked
+     * every page, read or skipped.  @return the pages fetched
+     */
+    private long scan(HeapFile hf, Predicate p, List<ArrayList<Integer>> expected) throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "t", p), expected);
+        for (int i = 0; i < hf.numPages(); i++)
+            assertTrue(bp.holdsLock(tid, new HeapPageId(hf.getId(), i)));
+        bp.transactionComplete(tid);
+        return bp.getStats().getHits() + bp.getStats().getMisses();
+    }
+
+    private static List<ArrayList<Integer>> rows(int from, int to) {
+        List<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        for (int i = from; i < to; i++)
+            rows.add(new ArrayList<Integer>(Arrays.asList(i, ROWS - i)));
+        return rows;
+    }
+
+    /**
+     * Unit test for ZoneMap.mayMatch() through a predicate scan: once the
+     * map is built, a range query fetches only the pages it could match.
+     */
+    @Test
+    public void skipsPages() throws Exception {
+        HeapFile hf = open();
+        int pages = hf.numPages();
+        assertTrue(pages > 5);
+        Predicate tail = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 100));
+
+        // the first scan builds the map, reading every page, then fetches the last again
+        assertEquals(pages + 1, scan(hf, tail, rows(ROWS - 100, ROWS)));
+        assertEquals(1, scan(hf, tail, rows(ROWS - 100, ROWS)));
+        assertEquals(1, scan(hf, new Predicate(0, Predicate.Op.EQUALS, new IntField(0)), rows(0, 1)));
+        assertEquals(0, scan(hf, new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(ROWS)),
+                rows(0, 0)));
+        // a predicate the ranges cannot decide reads every page
+        List<ArrayList<Integer>> others = rows(0, ROWS);
+        others.remove(7);
+        assertEquals(pages, scan(hf, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(7)), others));
+
+        // inserts widen the map, so the new tuple is found
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { -5, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        expected.add(new ArrayList<Integer>(Arrays.asList(-5, 0)));
+        assertEquals(1, scan(hf, new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)), expected));
+    }
+
+    /**
+     * Unit test for ZoneMap.save() and load(): a new HeapFile over the same
+     * data reads the sidecar instead of rebuilding the map, unless tuples
+     * were inserted by a HeapFile that had not loaded it.
+     */
+    @Test
+    public void loadsSidecar() throws Exception {
+        Predicate head = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        HeapFile hf = open();
+        int pages = hf.numPages();
+        assertEquals(pages + 1, scan(hf, head, rows(0, 10)));
+        assertTrue(ZoneMap.sidecar(f).exists());
+
+        assertEquals(1, scan(open(), head, rows(0, 10)));
+
+        // an insert the map does not see makes it out of date
+        HeapFile blind = open();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, blind.getId(), Utility.getHeapTuple(new int[] { 5, 0 }));
+        Database.getBufferPool().transactionComplete(tid);
+        List<ArrayList<Integer>> expected = rows(0, 10);
+        expected.add(new ArrayList<Integer>(Arrays.asList(5, 0)));
+        // the rebuild reads every page, then the first and the one inserted to
+        HeapFile hf2 = open();
+        assertEquals(hf2.numPages() + 2, scan(hf2, head, expected));
+
+        // the rebuilt map was saved, and covers the insert
+        assertEquals(2, scan(open(), head, expected));
+    }
+
+    /**
+     * Unit test for string prefix bounds
+     */
+    @Test
+    public void boundsStrings() throws Exception {
+        TupleDesc std = new TupleDesc(new Type[] { Type.STRING_TYPE });
+        ZoneMap z = new ZoneMap(std);
+        z.cover(2);
+        for (String s : new String[] { "apple", "apricot" }) {
+            Tuple t = new Tuple(std);
+            t.setField(0, new StringField(s, Type.STRING_LEN));
+            z.add(0, t);
+        }
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.EQUALS, new StringField("apricot", 128))));
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("apri", 128))));
+        assertFalse(z.mayMatch(0, new Predicate(0, Predicate.Op.GREATER_THAN, new StringField("b", 128))));
+        assertFalse(z.mayMatch(0, new Predicate(0, Predicate.Op.LESS_THAN, new StringField("ap", 128))));
+        assertTrue(z.mayMatch(0, new Predicate(0, Predicate.Op.LIKE, new StringField("zz", 128))));
+        // page 1 is empty
+        assertFalse(z.mayMatch(1, new Predicate(0, Predicate.Op.LIKE, new StringField("", 128))));
+        // pages past the map may match anything
+        assertTrue(z.mayMatch(2, new Predicate(0, Predicate.Op.EQUALS, new StringField("b", 128))));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,71 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Compares a CompressedHeapFile with the HeapFile it was copied from, on
+ * tables shaped like ScanTest's: one to four columns of random ints below
+ * 2^16.  For each, it reports the bytes on disk, how fast the compressed
+ * copy was written, and how fast each file scans from a cold pool.
+ * <p>
+ * The OS page cache holds both files after they are written, so the scans
+ * measure the CPU cost of reading pages rather than disk transfer; on a
+ * real disk the compressed file also reads fewer bytes.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.CompressionBenchmark [rows]
+ * </pre>
+ */
+public class CompressionBenchmark {
+
+    private static final int[] COLUMNS = { 1, 2, 3, 4 };
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        System.out.printf("%-8s %12s %12s %8s %14s %14s %14s%n", "columns", "plain bytes",
+                "compressed", "ratio", "write pages/s", "plain scan/s", "compr. scan/s");
+        for (int columns : COLUMNS) {
+            Database.reset();
+            HeapFile plain = SystemTestUtil.createRandomHeapFile(columns, rows, null, null);
+            File dest = File.createTempFile("compressed", ".dat");
+            dest.deleteOnExit();
+            CompressedHeapFile.mapFile(dest).deleteOnExit();
+
+            long start = System.nanoTime();
+            CompressedHeapFile compressed = CompressedHeapFile.compress(plain, dest);
+            double write = plain.numPages() / ((System.nanoTime() - start) / 1e9);
+            Database.getCatalog().addTable(compressed, "compressed");
+
+            long plainBytes = plain.getFile().length();
+            long compressedBytes = dest.length() + CompressedHeapFile.mapFile(dest).length();
+            double plainScan = 0, compressedScan = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                plainScan = Math.max(plainScan, scan(plain));
+                compressedScan = Math.max(compressedScan, scan(compressed));
+            }
+            System.out.printf("%-8d %12d %12d %8.2f %14.0f %14.0f %14.0f%n", columns, plainBytes,
+                    compressedBytes, (double) plainBytes / compressedBytes, write, plainScan,
+                    compressedScan);
+        }
+    }
+
+    /** Scans a table from a cold pool. @return pages per second */
+    private static double scan(HeapFile table) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        return table.numPages() / secs;
+    }
+}
@@ -0,0 +1,67 @@
+package simpledb.systemtest;
+
+import java.io.File;
+
+import simpledb.*;
+
+/**
+ * Measures how page reads through the BufferPool scale with the number of
+ * reader threads, with every read taking a shared page lock.
+ * <p>
+ * Each thread runs its own transactions, each of which reads every page
+ * of a table that fits in the pool and then completes, releasing its
+ * locks.  All threads therefore lock the same pages all the time.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.LockBenchmark [seconds]
+ * </pre>
+ */
+public class LockBenchmark {
+
+    private static final int[] THREADS = { 1, 2, 4, 8 };
+    private static final int PAGES = 40;
+
+    public static void main(String[] args) throws Exception {
+        final long seconds = args.length > 0 ? Long.parseLong(args[0]) : 2;
+
+        // one int column -> 992 tuples per page
+        File data = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, null);
+        Database.reset();
+        final HeapFile table = new HeapFile(data, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, "locked");
+        final BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        System.out.printf("%-8s %14s%n", "threads", "pages/s");
+        for (int n : THREADS) {
+            final long[] reads = new long[n];
+            final long end = System.nanoTime() + seconds * 1000000000L;
+            Thread[] threads = new Thread[n];
+            for (int i = 0; i < n; i++) {
+                final int me = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            while (System.nanoTime() < end) {
+                                TransactionId tid = new TransactionId();
+                                for (int pg = 0; pg < PAGES; pg++)
+                                    bp.getPage(tid, new HeapPageId(table.getId(), pg), Permissions.READ_ONLY);
+                                bp.transactionComplete(tid);
+                                reads[me] += PAGES;
+                            }
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            long total = 0;
+            for (int i = 0; i < n; i++) {
+                threads[i].join();
+                total += reads[i];
+            }
+            System.out.printf("%-8d %14.0f%n", n, total / (double) seconds);
+        }
+    }
+}
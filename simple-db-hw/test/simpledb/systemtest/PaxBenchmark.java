@@ -0,0 +1,81 @@
+package simpledb.systemtest;
+
+import java.io.*;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Compares the row and PAX layouts of the same ten-column table of random
+ * ints, scanned with a predicate on one column that few tuples satisfy
+ * and no page can be skipped for.  The pool holds both tables, so the scans measure the CPU cost of
+ * testing a column in each layout, not I/O.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.PaxBenchmark [rows]
+ * </pre>
+ */
+public class PaxBenchmark {
+
+    private static final int COLUMNS = 10;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+
+        File text = File.createTempFile("pax", ".txt");
+        text.deleteOnExit();
+        Random r = new Random(1);
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(text)))) {
+            for (int i = 0; i < rows; i++) {
+                StringBuilder sb = new StringBuilder();
+                for (int c = 0; c < COLUMNS; c++)
+                    sb.append(c == 0 ? "" : ",").append(r.nextInt(1 << 16));
+                out.println(sb);
+            }
+        }
+        Type[] types = Utility.getTypes(COLUMNS);
+        TupleDesc td = Utility.getTupleDesc(COLUMNS);
+        File rowFile = File.createTempFile("row", ".dat");
+        File paxFile = File.createTempFile("pax", ".dat");
+        for (File f : new File[] { rowFile, paxFile }) {
+            f.deleteOnExit();
+            // predicate scans save a zone map next to the table
+            new File(f.getPath() + ".zones").deleteOnExit();
+        }
+        HeapFileEncoder.convert(text, rowFile, BufferPool.getPageSize(), COLUMNS, types, ',');
+        HeapFileEncoder.convertPax(text, paxFile, BufferPool.getPageSize(), COLUMNS, types, ',');
+
+        HeapFile row = new HeapFile(rowFile, td, 0, HeapFile.Layout.ROW);
+        HeapFile pax = new HeapFile(paxFile, td, 0, HeapFile.Layout.PAX);
+        Database.getCatalog().addTable(row, "row");
+        Database.getCatalog().addTable(pax, "pax");
+        Database.resetBufferPool(row.numPages() + pax.numPages() + 16);
+
+        // every page's range holds the operand, so the zone map skips none
+        Predicate p = new Predicate(COLUMNS - 1, Predicate.Op.EQUALS, new IntField(1 << 15));
+        double rowRate = 0, paxRate = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            rowRate = Math.max(rowRate, scan(row, p));
+            paxRate = Math.max(paxRate, scan(pax, p));
+        }
+        System.out.printf("%-8s %10s %14s%n", "layout", "pages", "tuples/s");
+        System.out.printf("%-8s %10d %14.0f%n", "row", row.numPages(), rowRate * rows);
+        System.out.printf("%-8s %10d %14.0f%n", "pax", pax.numPages(), paxRate * rows);
+    }
+
+    /** Scans a table with a predicate. @return scans per second */
+    private static double scan(HeapFile table, Predicate p) throws Exception {
+        TransactionId tid = new TransactionId();
+        long start = System.nanoTime();
+        DbFileIterator it = table.iterator(tid, null, p);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        double secs = (System.nanoTime() - start) / 1e9;
+        Database.getBufferPool().transactionComplete(tid);
+        return 1 / secs;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.LockSupport;
+
+import simpledb.*;
+
+/**
+ * Measures sequential scan throughput with buffer pool read-ahead off and
+ * at several depths.
+ * <p>
+ * The table is read through a HeapFile that adds a fixed delay to every
+ * readPage, standing in for disk latency that the OS page cache would
+ * otherwise hide on a benchmark machine.  Each configuration scans the
+ * table from a cold pool.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.PrefetchBenchmark [pages] [latencyMicros]
+ * </pre>
+ */
+public class PrefetchBenchmark {
+
+    private static final int[] DEPTHS = { 0, 4, 16, 64 };
+
+    /** Adds a fixed delay to every page read. */
+    private static class SlowHeapFile extends HeapFile {
+        private final long latencyNanos;
+
+        SlowHeapFile(File f, TupleDesc td, long latencyNanos) {
+            super(f, td);
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            LockSupport.parkNanos(latencyNanos);
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        long latencyMicros = args.length > 1 ? Long.parseLong(args[1]) : 100;
+
+        // one int column -> 992 tuples per page
+        File data = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * pages, 1000, null, null);
+
+        System.out.printf("%d pages, %d us simulated read latency%n", pages, latencyMicros);
+        System.out.printf("%-8s %10s %14s%n", "depth", "ms", "pages/s");
+        for (int depth : DEPTHS) {
+            Database.reset();
+            SlowHeapFile table = new SlowHeapFile(data, Utility.getTupleDesc(1), latencyMicros * 1000);
+            Database.getCatalog().addTable(table, "scan");
+            BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+            bp.setPrefetchDepth(depth);
+
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            SeqScan scan = new SeqScan(tid, table.getId(), "t");
+            scan.open();
+            long tuples = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                tuples++;
+            }
+            scan.close();
+            long elapsed = System.nanoTime() - start;
+            bp.transactionComplete(tid);
+            if (tuples != 992L * pages)
+                throw new AssertionError("scan returned " + tuples + " tuples");
+
+            System.out.printf("%-8d %10.1f %14.0f%n", depth, elapsed / 1e6,
+                    pages / (elapsed / 1e9));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how well each buffer pool replacement policy keeps a small hot
+ * table cached while full scans of a large cold table run alongside it.
+ * <p>
+ * Each round issues a batch of point lookups on random pages of the hot
+ * table and then scans the whole cold table.  The hit ratio is the share
+ * of page requests that did not reach HeapFile.readPage.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.ReplacementPolicyBenchmark [rounds]
+ * </pre>
+ */
+public class ReplacementPolicyBenchmark {
+
+    private static final String[] POLICIES = { "clock", "2q" };
+
+    private static final int POOL_PAGES = BufferPool.DEFAULT_PAGES;
+    private static final int HOT_PAGES = 30;
+    private static final int COLD_PAGES = 500;
+    private static final int LOOKUPS_PER_ROUND = 2000;
+
+    /** Counts the number of readPage operations. */
+    private static class CountingHeapFile extends HeapFile {
+        int reads = 0;
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        // one int column -> 992 tuples per page
+        File hotFile = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * HOT_PAGES, 1000, null, null);
+        File coldFile = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * COLD_PAGES, 1000, null, null);
+
+        System.out.printf("%-8s %12s %12s %10s %12s%n",
+                "policy", "requests", "reads", "hit ratio", "hot hit ratio");
+        for (String policy : POLICIES) {
+            System.setProperty("simpledb.BufferPool.policy", policy);
+            Database.reset();
+            CountingHeapFile hot = new CountingHeapFile(hotFile, Utility.getTupleDesc(1));
+            CountingHeapFile cold = new CountingHeapFile(coldFile, Utility.getTupleDesc(1));
+            Database.getCatalog().addTable(hot, "hot");
+            Database.getCatalog().addTable(cold, "cold");
+            Database.resetBufferPool(POOL_PAGES);
+
+            Random r = new Random(42);
+            TransactionId tid = new TransactionId();
+            long hotRequests = 0;
+            long coldRequests = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < LOOKUPS_PER_ROUND; i++) {
+                    PageId pid = new HeapPageId(hot.getId(), r.nextInt(HOT_PAGES));
+                    Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    hotRequests++;
+                }
+                DbFileIterator it = cold.iterator(tid);
+                it.open();
+                while (it.hasNext())
+                    it.next();
+                it.close();
+                coldRequests += COLD_PAGES;
+            }
+            Database.getBufferPool().transactionComplete(tid);
+
+            long requests = hotRequests + coldRequests;
+            long reads = hot.reads + cold.reads;
+            System.out.printf("%-8s %12d %12d %10.3f %12.3f%n", policy, requests, reads,
+                    1.0 - (double) reads / requests,
+                    1.0 - (double) hot.reads / hotRequests);
+        }
+        System.clearProperty("simpledb.BufferPool.policy");
+    }
+}
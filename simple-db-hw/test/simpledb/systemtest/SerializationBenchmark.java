@@ -0,0 +1,108 @@
+package simpledb.systemtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import simpledb.*;
+
+/**
+ * Measures the cost of turning tuples and pages into bytes: serializing
+ * fields through a DataOutputStream against writing them straight into a
+ * reused buffer, filling pages with insertTuple, and appending update
+ * records for whole pages to the log.
+ * <p>
+ * Tuples have an int and a string column, so each one carries a padded
+ * string as well as a fixed-size field.
+ * <p>
+ * Run with:
+ * <pre>
+ *   java -cp bin/src:bin/test simpledb.systemtest.SerializationBenchmark [pages]
+ * </pre>
+ */
+public class SerializationBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        final int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+
+        Database.reset();
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        File empty = File.createTempFile("serial", ".dat");
+        empty.deleteOnExit();
+        HeapFile table = new HeapFile(empty, td);
+        Database.getCatalog().addTable(table, "serial");
+        HeapPageId pid = new HeapPageId(table.getId(), 0);
+
+        int perPage = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        Tuple[] tuples = new Tuple[perPage];
+        for (int i = 0; i < perPage; i++) {
+            tuples[i] = new Tuple(td);
+            tuples[i].setField(0, new IntField(i));
+            tuples[i].setField(1, new StringField("tuple " + i, Type.STRING_LEN));
+        }
+
+        File log = File.createTempFile("serial", ".log");
+        log.deleteOnExit();
+
+        System.out.printf("%-24s %14s%n", "", "pages/s");
+        for (int round = 0; round < ROUNDS; round++) {
+            long sink = 0;
+
+            long start = System.nanoTime();
+            for (int p = 0; p < pages; p++) {
+                for (Tuple t : tuples) {
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+                    DataOutputStream dos = new DataOutputStream(baos);
+                    for (int j = 0; j < td.numFields(); j++)
+                        t.getField(j).serialize(dos);
+                    dos.flush();
+                    sink += baos.toByteArray().length;
+                }
+            }
+            report("serialize (stream)", pages, start);
+
+            ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+            start = System.nanoTime();
+            for (int p = 0; p < pages; p++) {
+                for (Tuple t : tuples) {
+                    buf.clear();
+                    for (int j = 0; j < td.numFields(); j++)
+                        t.getField(j).serialize(buf);
+                    sink += buf.position();
+                }
+            }
+            report("serialize (buffer)", pages, start);
+
+            HeapPage page = null;
+            start = System.nanoTime();
+            for (int p = 0; p < pages; p++) {
+                page = new HeapPage(pid, HeapPage.createEmptyPageData());
+                for (Tuple t : tuples)
+                    page.insertTuple(t);
+                sink += page.getPageData().length;
+            }
+            report("fill and flush page", pages, start);
+
+            LogFile lf = new LogFile(log);
+            TransactionId tid = new TransactionId();
+            HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+            start = System.nanoTime();
+            for (int p = 0; p < pages; p++)
+                lf.logWrite(tid, before, page);
+            lf.force();
+            report("log page write", pages, start);
+            lf.shutdown();
+
+            if (sink == 42)
+                System.out.println();
+        }
+    }
+
+    private static void report(String what, int pages, long start) {
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-24s %14.0f%n", what, pages / secs);
+    }
+}